@@ -0,0 +1,114 @@
+import java.util.Collection;
+
+/**
+ * A set of words that can be looked up straight from a slice of a char array, ignoring case,
+ * so there's no need to create a lowercase String just to check if a token is in the set.
+ * The set can't be modified after it's created, so it can be shared by many threads.
+ */
+public class CharArraySet {
+
+    /**
+     * open addressing hash table of the words
+     */
+    private final char[][] words;
+    /**
+     * mask to get the slot of a hash
+     */
+    private final int mask;
+    /**
+     * number of words in set
+     */
+    private final int size;
+
+    /**
+     * Constructor
+     * @param words to put in set. Words are kept as they are, and looked up in lowercase.
+     */
+    public CharArraySet(Collection<String> words) {
+        int capacity = 16;
+        while (capacity < words.size() * 2) capacity <<= 1;
+        this.words = new char[capacity][];
+        this.mask = capacity - 1;
+        int size = 0;
+        for (String word : words) {
+            char[] chars = word.toCharArray();
+            int slot = hash(chars, 0, chars.length, false) & mask;
+            while (this.words[slot] != null && !equals(this.words[slot], chars, 0, chars.length, false)) {
+                slot = (slot + 1) & mask;
+            }
+            if (this.words[slot] == null) {
+                this.words[slot] = chars;
+                size++;
+            }
+        }
+        this.size = size;
+    }
+
+    /**
+     * Checks if the lowercase form of a slice of a char array is in set
+     * @param buffer holding the word
+     * @param offset where word starts
+     * @param length of word
+     * @return true if in set
+     */
+    public boolean contains(char[] buffer, int offset, int length) {
+        int slot = hash(buffer, offset, length, true) & mask;
+        char[] word;
+        while ((word = words[slot]) != null) {
+            if (equals(word, buffer, offset, length, true)) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the lowercase form of a word is in set
+     * @param word to check
+     * @return true if in set
+     */
+    public boolean contains(CharSequence word) {
+        int length = word.length();
+        int hash = 0;
+        for (int i = 0; i < length; i++) hash = 31 * hash + Character.toLowerCase(word.charAt(i));
+        int slot = mix(hash) & mask;
+        char[] setWord;
+        while ((setWord = words[slot]) != null) {
+            if (setWord.length == length) {
+                int i = 0;
+                while (i < length && setWord[i] == Character.toLowerCase(word.charAt(i))) i++;
+                if (i == length) return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return number of words in set
+     */
+    public int size() {
+        return size;
+    }
+
+    private static int hash(char[] buffer, int offset, int length, boolean toLowerCase) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + (toLowerCase ? Character.toLowerCase(buffer[i]) : buffer[i]);
+        }
+        return mix(hash);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(char[] word, char[] buffer, int offset, int length, boolean toLowerCase) {
+        if (word.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            char character = buffer[offset + i];
+            if (toLowerCase) character = Character.toLowerCase(character);
+            if (word[i] != character) return false;
+        }
+        return true;
+    }
+}
@@ -22,7 +22,6 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -66,17 +65,17 @@ public class Controller implements Initializable {
      */
     private Indexer indexer;
     /**
-     * Number of files to write in every temporal posting
+     * Bytes of heap that the indexer may fill with postings before writing them to disk
      */
-    private int filesPerPosting = 1;
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
     /**
      * for measuring indexing time
      */
     private long startingTime;
     /**
-     * dictionary to hold in memory
+     * segments of the index whose dictionary is loaded (their dictionaries are mapped, not read into memory)
      */
-    private ConcurrentHashMap<String, long[]> dictionary;
+    private Segments dictionary;
 
     /**
      * Initializes the controller.
@@ -153,30 +152,15 @@ public class Controller implements Initializable {
             if (useStemming.isSelected()) path = indexPath + "\\WithStemming";
             else path = indexPath + "\\WithoutStemming";
 
-            BufferedReader reader = new BufferedReader(new FileReader(new File(path + "\\documents")));
-            String line = reader.readLine();
-            double documentCount = Double.parseDouble(line.split("=")[1]);
-            reader.close();
-
-//            dictionary = new HashMap<>();
-            dictionary = new ConcurrentHashMap<>();
-            reader = new BufferedReader(new FileReader(new File(path + "\\dictionary")));
-            while ((line = reader.readLine()) != null){
-                String[] termEntry = line.split("\\|");
-                String term = termEntry[0];
-                long[] termData = new long[3];
-                termData[0] = Long.valueOf(termEntry[1]);
-                termData[1] = Long.valueOf(termEntry[2]);
-                termData[2] = Long.valueOf(termEntry[3]);
-                dictionary.put(term,termData);
-            }
-            reader.close();
+            Segments segments = Segments.read(path);
+            double documentCount = segments.getDocumentCount();
+            dictionary = segments;
 
-            setLanguages(path);
+            languageChoicebox.getItems().addAll(segments.getLanguages());
             commentsBox.setText("Finished!");
             DecimalFormat formatter = new DecimalFormat("#,###");
             docCountValue.setText(formatter.format(documentCount));
-            termCountValue.setText(formatter.format(dictionary.size()));
+            termCountValue.setText(formatter.format(segments.getTermCount()));
             statsVisible(true);
             totalTimeValue.setVisible(false);
             totalTimeText.setVisible(false);
@@ -188,20 +172,10 @@ public class Controller implements Initializable {
         }
     }
 
-    /**
-     * Add languages from the language index to the list of available languages.
-     */
-    private void setLanguages(String path) throws IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(new File(path + "\\languages")));
-        String line = "";
-        while ((line = reader.readLine()) != null){
-            languageChoicebox.getItems().add(line);
-        }
-    }
-
     /**
      * Creates the index of corpus from corpus that in index path, using the stop-words
-     * from the corpus path. If there's already a completed index in the path, it replaces it.
+     * from the corpus path. If there's already a completed index in the path, the user chooses whether
+     * to add the new files of the corpus to it or to replace it.
      * If "use stemming" is checked, will create the index in the "withStemming" path, else from
      * the "withoutStemming" path.
      */
@@ -213,10 +187,18 @@ public class Controller implements Initializable {
             else indexPath = this.indexPath + "\\WithoutStemming";
 
             // In case index already exists
+            boolean append = false;
             if (Files.exists(Paths.get(indexPath))) {
-                String text = "Index already exists in folder. Do you want to delete it?";
-                if (getResultFromWarning(text) == ButtonType.NO) return;
+                ButtonType addFiles = new ButtonType("Add new files");
+                ButtonType replace = new ButtonType("Replace");
+                String text = "Index already exists in folder. Do you want to add the new files of the corpus to it "
+                        + "(resuming the last indexing if it was interrupted), or to replace it?";
+                Alert alert = new Alert(Alert.AlertType.WARNING, text, addFiles, replace, ButtonType.CANCEL);
+                alert.showAndWait();
+                if (alert.getResult() == ButtonType.CANCEL) return;
+                append = alert.getResult() == addFiles;
             }
+            boolean addToIndex = append;
 
             indexer = new Indexer(indexPath);
             dictionary = null;
@@ -230,7 +212,14 @@ public class Controller implements Initializable {
             Thread thread = new Thread(new Task<Void>() {
                 @Override
                 protected Void call() throws Exception {
-                    indexer.createInvertedIndex(corpusPath, useStemming.isSelected(), filesPerPosting);
+                    try {
+                        if (addToIndex) indexer.addToInvertedIndex(corpusPath, useStemming.isSelected(), memoryBudget);
+                        else indexer.createInvertedIndex(corpusPath, useStemming.isSelected(), memoryBudget);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        showComment("RED", e.getMessage());
+                        return null;
+                    }
                     indexingFinished();
                     return null;
                 }
@@ -246,9 +235,9 @@ public class Controller implements Initializable {
     /**
      * Continuation of the "createIndex" method that the thread triggers after finishing.
      */
-    private void indexingFinished() {
+    private void indexingFinished() throws IOException {
         double totalTime = (System.currentTimeMillis() - startingTime)/1000;
-        dictionary = indexer.getDictionary();
+        dictionary = Segments.exists(indexer.getIndexPath()) ? Segments.read(indexer.getIndexPath()) : null;
         languageChoicebox.setItems(FXCollections.observableArrayList(indexer.getLanguages()));
         commentsBox.setText("Finished!");
         DecimalFormat formatter = new DecimalFormat("#,###");
@@ -346,10 +335,11 @@ public class Controller implements Initializable {
     public void viewDictionary() {
         dictionaryViewButton.setDisable(true);
         ObservableList<DictEntry> items = FXCollections.observableArrayList();
-        for (Map.Entry<String, long[]> entry : dictionary.entrySet()){
-            long[] data = entry.getValue();
-            DictEntry dictEntry = new DictEntry(entry.getKey(), data[0], data[1]);
-            items.add(dictEntry);
+        try {
+            dictionary.forEachTerm((term, data) -> items.add(new DictEntry(term, data[0], data[1])));
+        } catch (IOException e) {
+            showComment("RED", e.getMessage());
+            return;
         }
         dictionaryView.setItems(items);
         dictionaryView.getSortOrder().add(termColumn);
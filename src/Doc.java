@@ -1,7 +1,6 @@
 
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 
 /**
  * Represents a document from the corpus.
@@ -37,7 +36,8 @@ public class Doc {
      */
     public ArrayList<String> title = new ArrayList<>();
     /**
-     * terms of doc after parsing
+     * terms of doc after parsing. The buffer belongs to the Parse, and is reused for the next doc it parses
+     * (unless it's replaced with a copy).
      */
-    public LinkedList<String> terms = new LinkedList<>();
+    public TokenBuffer terms;
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * The data of the docs indexed by an inverter, until it's written to the documents file (see DocumentStore).
+ * The docs are kept one after the other in an int array and a String array instead of an object per doc,
+ * and every inverter has its own buffer, so adding a doc never waits for another thread.
+ * The buffer of the docs of every temporal posting is written next to it (see Manifest), so the docs of
+ * an interrupted build are not lost with the memory.
+ * When written, the docs of all buffers are put in order of their ids, so they never need to be sorted.
+ * Not thread-safe: each inverter has its own buffer.
+ */
+public class DocumentBuffer {
+
+    /**
+     * ints per doc: id, position in file, term count and max tf
+     */
+    private static final int INTS = 4;
+    /**
+     * Strings per doc: DOCNO, file, city, language and date
+     */
+    private static final int STRINGS = 5;
+
+    private int[] ints = new int[INTS * 64];
+    private String[] strings = new String[STRINGS * 64];
+    /**
+     * number of docs
+     */
+    private int size;
+
+    /**
+     * Adds a doc
+     * @param id of doc
+     * @param doc after parsing
+     * @param termCount number of terms in doc
+     * @param maxTf frequency of the most frequent term in doc
+     */
+    public void add(int id, Doc doc, int termCount, int maxTf) {
+        add(id, doc.name, doc.file, doc.positionInFile, termCount, maxTf, doc.city, doc.language, doc.date);
+    }
+
+    /**
+     * Adds a doc
+     * @param id of doc
+     * @param docNo DOCNO of doc
+     * @param file name of the file that contains the doc
+     * @param positionInFile position of doc in its file
+     * @param termCount number of terms in doc
+     * @param maxTf frequency of the most frequent term in doc
+     * @param city of doc, or ""
+     * @param language of doc, or ""
+     * @param date of doc as written by Parse (year-month-day), or ""
+     */
+    public void add(int id, String docNo, String file, int positionInFile, int termCount, int maxTf,
+                    String city, String language, String date) {
+        if (size * INTS == ints.length) {
+            ints = Arrays.copyOf(ints, ints.length * 2);
+            strings = Arrays.copyOf(strings, strings.length * 2);
+        }
+        int i = size * INTS;
+        ints[i] = id;
+        ints[i + 1] = positionInFile;
+        ints[i + 2] = termCount;
+        ints[i + 3] = maxTf;
+        int s = size * STRINGS;
+        strings[s] = docNo;
+        strings[s + 1] = file;
+        strings[s + 2] = city;
+        strings[s + 3] = language;
+        strings[s + 4] = date;
+        size++;
+    }
+
+    /**
+     * Adds a doc of another buffer
+     * @param id of doc in this buffer
+     * @param other buffer
+     * @param i index of doc in the other buffer
+     */
+    public void add(int id, DocumentBuffer other, int i) {
+        add(id, other.getDocNo(i), other.getFile(i), other.getPositionInFile(i), other.getTermCount(i),
+                other.getMaxTf(i), other.getCity(i), other.getLanguage(i), other.getDate(i));
+    }
+
+    /**
+     * Writes the docs of buffer to a file, and forces them to the disk
+     * @param path of file
+     */
+    public void write(String path) throws IOException {
+        FileOutputStream file = new FileOutputStream(path);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(size);
+            for (int i = 0; i < size * INTS; i++) out.writeInt(ints[i]);
+            for (int i = 0; i < size * STRINGS; i++) out.writeUTF(strings[i]);
+            out.flush();
+            file.getFD().sync();
+        }
+    }
+
+    /**
+     * Reads docs written by write()
+     * @param path of file
+     * @return buffer with the docs
+     */
+    public static DocumentBuffer read(String path) throws IOException {
+        DocumentBuffer buffer = new DocumentBuffer();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            buffer.size = in.readInt();
+            buffer.ints = new int[Math.max(INTS, buffer.size * INTS)];
+            buffer.strings = new String[Math.max(STRINGS, buffer.size * STRINGS)];
+            for (int i = 0; i < buffer.size * INTS; i++) buffer.ints[i] = in.readInt();
+            for (int i = 0; i < buffer.size * STRINGS; i++) buffer.strings[i] = in.readUTF();
+        }
+        return buffer;
+    }
+
+    /**
+     * @return number of docs in buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i index of doc in buffer
+     * @return id of doc
+     */
+    public int getId(int i) {
+        return ints[i * INTS];
+    }
+
+    /**
+     * @param i index of doc in buffer
+     * @return position of doc in its file
+     */
+    public int getPositionInFile(int i) {
+        return ints[i * INTS + 1];
+    }
+
+    /**
+     * @param i index of doc in buffer
+     * @return number of terms in doc
+     */
+    public int getTermCount(int i) {
+        return ints[i * INTS + 2];
+    }
+
+    /**
+     * @param i index of doc in buffer
+     * @return frequency of the most frequent term in doc
+     */
+    public int getMaxTf(int i) {
+        return ints[i * INTS + 3];
+    }
+
+    /**
+     * @param i index of doc in buffer
+     * @return DOCNO of doc
+     */
+    public String getDocNo(int i) {
+        return strings[i * STRINGS];
+    }
+
+    /**
+     * @param i index of doc in buffer
+     * @return name of the file that contains the doc
+     */
+    public String getFile(int i) {
+        return strings[i * STRINGS + 1];
+    }
+
+    /**
+     * @param i index of doc in buffer
+     * @return city of doc, or "" if it has none
+     */
+    public String getCity(int i) {
+        return strings[i * STRINGS + 2];
+    }
+
+    /**
+     * @param i index of doc in buffer
+     * @return language of doc, or "" if it has none
+     */
+    public String getLanguage(int i) {
+        return strings[i * STRINGS + 3];
+    }
+
+    /**
+     * @param i index of doc in buffer
+     * @return date of doc as written by Parse (year-month-day), or "" if it has none
+     */
+    public String getDate(int i) {
+        return strings[i * STRINGS + 4];
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * The documents' index. Docs are known by dense int ids given while indexing (the ids used in the postings),
+ * and the data of every doc is a fixed-width record in the binary "documents" file, so the record of a doc
+ * is read straight from its id: file, position in file, term count, max tf, city, language and date.
+ * Files, cities and languages are kept by id too (their line in the "files", "cities" and "languages" files),
+ * and the "docnos" file holds the DOCNO of every doc, one per line in the order of ids.
+ */
+public class DocumentStore {
+
+    /**
+     * ints in the record of a doc
+     */
+    public static final int RECORD_INTS = 7;
+    /**
+     * bytes in the record of a doc
+     */
+    public static final int RECORD_SIZE = RECORD_INTS * 4;
+    /**
+     * id of a city, language or file that a doc doesn't have
+     */
+    public static final int NONE = -1;
+    /**
+     * epoch day of a doc with no date
+     */
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final int FILE = 0;
+    private static final int POSITION = 1;
+    private static final int TERM_COUNT = 2;
+    private static final int MAX_TF = 3;
+    private static final int CITY = 4;
+    private static final int LANGUAGE = 5;
+    private static final int DATE = 6;
+
+    /**
+     * the mapped documents file
+     */
+    private final IntBuffer records;
+    /**
+     * DOCNO of every doc, by id
+     */
+    private final String[] docNos;
+    /**
+     * id of every DOCNO
+     */
+    private final HashMap<String, Integer> ids;
+    /**
+     * names of files, by id
+     */
+    private final List<String> files;
+    /**
+     * names of cities, by id
+     */
+    private final List<String> cities;
+    /**
+     * names of languages, by id
+     */
+    private final List<String> languages;
+
+    /**
+     * Constructor. Maps the documents file and loads the DOCNOs, files, cities and languages of an index.
+     * @param indexPath path of index directory
+     */
+    public DocumentStore(String indexPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(indexPath + "\\documents"), StandardOpenOption.READ)) {
+            records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asIntBuffer();
+        }
+        List<String> docNoList = readLines(indexPath + "\\docnos");
+        docNos = docNoList.toArray(new String[0]);
+        ids = new HashMap<>(docNos.length * 2);
+        for (int id = 0; id < docNos.length; id++) ids.put(docNos[id], id);
+        files = readLines(indexPath + "\\files");
+        cities = new ArrayList<>();
+        for (String line : readLines(indexPath + "\\cities")) cities.add(line.split("\\|")[0]);
+        languages = readLines(indexPath + "\\languages");
+    }
+
+    /**
+     * @return number of docs
+     */
+    public int size() {
+        return docNos.length;
+    }
+
+    /**
+     * @param docNo DOCNO of doc
+     * @return id of doc, or NONE if there's no such doc
+     */
+    public int getId(String docNo) {
+        Integer id = ids.get(docNo);
+        return id == null ? NONE : id;
+    }
+
+    /**
+     * @param id of doc
+     * @return DOCNO of doc
+     */
+    public String getDocNo(int id) {
+        return docNos[id];
+    }
+
+    /**
+     * @param id of doc
+     * @return name of the file that contains the doc
+     */
+    public String getFile(int id) {
+        return files.get(get(id, FILE));
+    }
+
+    /**
+     * @param id of doc
+     * @return position of doc in its file
+     */
+    public int getPositionInFile(int id) {
+        return get(id, POSITION);
+    }
+
+    /**
+     * @param id of doc
+     * @return number of terms in doc
+     */
+    public int getTermCount(int id) {
+        return get(id, TERM_COUNT);
+    }
+
+    /**
+     * @param id of doc
+     * @return frequency of the most frequent term in doc
+     */
+    public int getMaxTf(int id) {
+        return get(id, MAX_TF);
+    }
+
+    /**
+     * @param id of doc
+     * @return id of the doc's city (its line in the cities file), or NONE
+     */
+    public int getCityId(int id) {
+        return get(id, CITY);
+    }
+
+    /**
+     * @param id of doc
+     * @return city of doc, or "" if it has none
+     */
+    public String getCity(int id) {
+        int city = get(id, CITY);
+        return city == NONE ? "" : cities.get(city);
+    }
+
+    /**
+     * @param id of doc
+     * @return id of the doc's language (its line in the languages file), or NONE
+     */
+    public int getLanguageId(int id) {
+        return get(id, LANGUAGE);
+    }
+
+    /**
+     * @param id of doc
+     * @return language of doc, or "" if it has none
+     */
+    public String getLanguage(int id) {
+        int language = get(id, LANGUAGE);
+        return language == NONE ? "" : languages.get(language);
+    }
+
+    /**
+     * @param id of doc
+     * @return date of doc as days since 1970-01-01, or NO_DATE
+     */
+    public int getEpochDay(int id) {
+        return get(id, DATE);
+    }
+
+    /**
+     * @param id of doc
+     * @return date of doc, or null if it has none
+     */
+    public LocalDate getDate(int id) {
+        int epochDay = get(id, DATE);
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    private int get(int id, int field) {
+        return records.get(id * RECORD_INTS + field);
+    }
+
+    private static List<String> readLines(String path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(path)))) {
+            String line;
+            while ((line = reader.readLine()) != null) lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the documents, docnos and files of an index. Cities and languages are only given
+     * to know their ids: their own files are written by the indexer.
+     * @param indexPath path of index directory
+     * @param buffers holding the data of all docs, whose ids go from 0 to the number of docs
+     * @param files names of all files, in the order of their ids
+     * @param cities names of all cities, in the order of their ids
+     * @param languages names of all languages, in the order of their ids
+     */
+    public static void write(String indexPath, DocumentBuffer[] buffers, Collection<String> files,
+                             Collection<String> cities, Collection<String> languages) throws IOException {
+        HashMap<String, Integer> fileIds = getIds(files);
+        HashMap<String, Integer> cityIds = getIds(cities);
+        HashMap<String, Integer> languageIds = getIds(languages);
+
+        // find every doc by its id: buffer (high 32 bits) and index in buffer
+        int documentCount = 0;
+        for (DocumentBuffer buffer : buffers) documentCount += buffer.size();
+        long[] docs = new long[documentCount];
+        for (int b = 0; b < buffers.length; b++) {
+            for (int i = 0; i < buffers[b].size(); i++) docs[buffers[b].getId(i)] = (long) b << 32 | i;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexPath + "\\documents")));
+             BufferedWriter docNos = new BufferedWriter(new FileWriter(indexPath + "\\docnos"))) {
+            for (long doc : docs) {
+                DocumentBuffer buffer = buffers[(int) (doc >>> 32)];
+                int i = (int) doc;
+                out.writeInt(fileIds.getOrDefault(buffer.getFile(i), NONE));
+                out.writeInt(buffer.getPositionInFile(i));
+                out.writeInt(buffer.getTermCount(i));
+                out.writeInt(buffer.getMaxTf(i));
+                out.writeInt(cityIds.getOrDefault(buffer.getCity(i), NONE));
+                out.writeInt(languageIds.getOrDefault(buffer.getLanguage(i), NONE));
+                out.writeInt(getEpochDay(buffer.getDate(i)));
+                docNos.write(buffer.getDocNo(i) + "\n");
+            }
+        }
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(indexPath + "\\files"))) {
+            for (String file : files) out.write(file + "\n");
+        }
+    }
+
+    private static HashMap<String, Integer> getIds(Collection<String> names) {
+        HashMap<String, Integer> ids = new HashMap<>();
+        for (String name : names) ids.put(name, ids.size());
+        return ids;
+    }
+
+    /**
+     * Converts a date as written by Parse (year-month-day) into an epoch day
+     * @param date to convert
+     * @return days since 1970-01-01, or NO_DATE if date is empty or not a valid date
+     */
+    private static int getEpochDay(String date) {
+        String[] parts = date.split("-");
+        if (parts.length != 3) return NO_DATE;
+        for (String part : parts) if (!TokenShape.isInteger(part, 0, part.length())) return NO_DATE;
+        try {
+            return (int) LocalDate.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                    Integer.parseInt(parts[2])).toEpochDay();
+        } catch (DateTimeException e) {
+            return NO_DATE;
+        }
+    }
+}
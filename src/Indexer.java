@@ -1,8 +1,10 @@
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Responsible of building the inverted index for a corpus (data-set).
@@ -14,17 +16,17 @@ public class Indexer {
      */
     private final HashMap months;
     /**
-     * holds the characters to trim from a word's end
+     * lookup table of the characters to trim from a word's end
      */
-    private final HashSet stopSuffixes;
+    private final boolean[] stopSuffixes;
     /**
-     * holds the characters to trim from a word's beginning
+     * lookup table of the characters to trim from a word's beginning
      */
-    private final HashSet stopPrefixes;
+    private final boolean[] stopPrefixes;
     /**
      * stop words data
      */
-    private HashSet<String> stopWords;
+    private CharArraySet stopWords;
     /**
      * city data
      */
@@ -34,33 +36,62 @@ public class Indexer {
      */
     private ConcurrentHashMap<String, String[]> cityIndex;
     /**
-     * term dictionary of whole corpus
+     * term dictionary of the segment being created, until it's written
      */
     private ConcurrentHashMap<String, long[]> dictionary;
     /**
-     * document data
+     * ids of the docs that go to the segment, in order, so the id of a doc in the segment is its index here.
+     * null if all the docs inverted go to the segment.
      */
-    private BlockingDeque<String> documentIndex;
+    private int[] segmentDocIds;
+    /**
+     * log of the build of the segment, to resume it if it's interrupted
+     */
+    private Manifest manifest;
+    /**
+     * error that stopped the build, if any
+     */
+    private volatile Throwable failure;
+    /**
+     * runs the stages of the pipeline
+     */
+    private ExecutorService pipeline;
+    /**
+     * id of the next doc to be indexed
+     */
+    private AtomicInteger nextDocId;
     /**
      * path of index directory
      */
     private String index_path;
+    /**
+     * path of the directory of the segment being created (renamed when it's complete, see Segments)
+     */
+    private String segment_path;
     /**
      * true to use stemming, false otherwise
      */
     private boolean useStemming;
     /**
-     * files to write in each temporal posting
+     * bytes of postings an inverter holds in memory before writing them as a temporal posting
+     */
+    private long bytesPerPosting;
+    /**
+     * writes temporal postings in the background, while the inverters go on
      */
-    private int docsPerPosting;
+    private ExecutorService flusher;
     /**
-     * number of groups to separate corpus files to
+     * number of threads to parse and merge with
      */
     private int taskCount;
     /**
-     *  number of temporal postings
+     * id of the next temporal posting to be written
+     */
+    private AtomicInteger nextPostingId;
+    /**
+     * max number of docs waiting in each queue between the stages of indexing
      */
-    private int postingsCount;
+    private static final int QUEUE_CAPACITY = 256;
     /**
      * number of documents indexed
      */
@@ -70,9 +101,18 @@ public class Indexer {
      */
     public double dictionarySize;
     /**
-     * Collection of stems to not stem token twice
+     * Cache of stems to not stem token twice
      */
-    private ConcurrentHashMap<String, String> stemCollection;
+    private StemCache stemCache;
+
+    /**
+     * a term of every SAMPLE_INTERVAL terms of the temporal postings is sampled
+     */
+    private static final int SAMPLE_INTERVAL = 64;
+    /**
+     * samples of the terms of all temporal postings, to split the merge into ranges
+     */
+    private final ConcurrentLinkedQueue<RunSample> runSamples = new ConcurrentLinkedQueue<>();
 
     /**
      * Collection of languages that were found in documents
@@ -97,42 +137,22 @@ public class Indexer {
     }
 
     /**
-     * Build the prefixes to trim in word list
-     * @return set of prefixes
-     */
-    private HashSet getStopPrefixes() {
-        HashSet<Character> stopPrefixes = new HashSet<>();
-        stopPrefixes.add('.');
-        stopPrefixes.add('-');
-        stopPrefixes.add(',');
-        stopPrefixes.add('/');
-        stopPrefixes.add('\'');
-        stopPrefixes.add('%');
-        stopPrefixes.add(' ');
-        stopPrefixes.add('(');
-        stopPrefixes.add('<');
-        stopPrefixes.add('=');
-        stopPrefixes.add(':');
+     * Build the lookup table of prefixes to trim in word list
+     * @return table where table[c] is true if c is a prefix to trim (only for c < 128)
+     */
+    static boolean[] getStopPrefixes() {
+        boolean[] stopPrefixes = new boolean[128];
+        for (char prefix : ".-,/'% (<=:".toCharArray()) stopPrefixes[prefix] = true;
         return stopPrefixes;
     }
 
     /**
-     * Build the suffixes to trim in word list
-     * @return set of suffixes
-     */
-    private HashSet getStopSuffixes() {
-        HashSet<Character> stopSuffixes = new HashSet<>();
-        stopSuffixes.add('.');
-        stopSuffixes.add('-');
-        stopSuffixes.add(',');
-        stopSuffixes.add('/');
-        stopSuffixes.add('\'');
-        stopSuffixes.add('$');
-        stopSuffixes.add(' ');
-        stopSuffixes.add(')');
-        stopSuffixes.add('>');
-        stopSuffixes.add('=');
-        stopSuffixes.add(':');
+     * Build the lookup table of suffixes to trim in word list
+     * @return table where table[c] is true if c is a suffix to trim (only for c < 128)
+     */
+    static boolean[] getStopSuffixes() {
+        boolean[] stopSuffixes = new boolean[128];
+        for (char suffix : ".-,/'$ )>=:".toCharArray()) stopSuffixes[suffix] = true;
         return stopSuffixes;
     }
 
@@ -140,7 +160,7 @@ public class Indexer {
      * Build the month's list
      * @return list
      */
-    private HashMap getMonths() {
+    static HashMap getMonths() {
         HashMap<String, String> months = new HashMap<>();
         months.put("january", "01");
         months.put("february", "02");
@@ -169,144 +189,284 @@ public class Indexer {
     }
 
     /**
-     * Get the indexer's dictionary
-     * @return the dictionary
+     * @return path of index directory
      */
-    public ConcurrentHashMap getDictionary(){
-        return dictionary;
+    public String getIndexPath() {
+        return index_path;
     }
 
     /**
      * Creates the index of corpus from corpus that in index path, using the stop-words
-     * from the stop-words path. If there's already a completed index in the path, it replaces it.
+     * from the stop-words path. If there's already a completed index in the path, it replaces it:
+     * the new index is built as a new segment next to the old ones, which stay as they are until it's
+     * complete, and then it replaces them all at once (see Segments.publishReplacing). The old segments are
+     * removed after that. If the build is interrupted, the old index is still there, and running this
+     * again resumes the build.
      * @param corpusPath path of corpus directory
      * @param useStemming true to use stemmer, false otherwise
-     * @param filesPerPosting files to write per temporal posting
+     * @param memoryBudget bytes of heap for the postings in memory. When they take more than that,
+     *                     they are written to disk as temporal postings.
      */
-    public void createInvertedIndex(String corpusPath, boolean useStemming, int filesPerPosting) throws IOException {
+    public void createInvertedIndex(String corpusPath, boolean useStemming, long memoryBudget) throws IOException {
+        SegmentMerger.waitForMerges();
+        index(corpusPath, useStemming, memoryBudget, true);
+    }
 
-        long start = System.currentTimeMillis();
+    /**
+     * Adds to the index in index path the files of corpus that are not in it yet, as a new segment
+     * (see Segments). Then merges segments in the background if there are too many.
+     * If there's no index in the path, it's created. If a build (of the index or of a segment) was
+     * interrupted, it's resumed.
+     * @param corpusPath path of corpus directory
+     * @param useStemming true to use stemmer, false otherwise. Must be the same as when the index was created.
+     * @param memoryBudget bytes of heap for the postings in memory. When they take more than that,
+     *                     they are written to disk as temporal postings.
+     */
+    public void addToInvertedIndex(String corpusPath, boolean useStemming, long memoryBudget) throws IOException {
+        index(corpusPath, useStemming, memoryBudget, false);
+    }
 
-        this.docsPerPosting = filesPerPosting;
-        this.useStemming = useStemming;
+    /**
+     * Indexes files of corpus into a new segment of the index in index path, and publishes it
+     * @param corpusPath path of corpus directory
+     * @param useStemming true to use stemmer, false otherwise
+     * @param memoryBudget bytes of heap for the postings in memory
+     * @param replacing true to index all the files of corpus, and replace the segments of index with the new
+     *                  one. False to index only the files that are not in index, and add the new segment.
+     */
+    private void index(String corpusPath, boolean useStemming, long memoryBudget, boolean replacing)
+            throws IOException {
+
+        long start = System.currentTimeMillis();
 
+        // Walk through files, leaving out the ones already in index (unless it's replaced)
         String stopWordsName = "stop_words.txt";
-        stopWords = getStopWords(corpusPath, stopWordsName);
-        documentIndex = new LinkedBlockingDeque<>();
-        dictionary = new ConcurrentHashMap<>();
-        cityIndex = new ConcurrentHashMap<>();
-        stemCollection = new ConcurrentHashMap<>();
-        languages = new TreeSet<>();
+        List<String> filePaths = new ArrayList<>();
+        walk(corpusPath, filePaths);
+        filePaths.removeIf(filePath -> new File(filePath).getName().equals(stopWordsName));
+        if (Segments.exists(index_path) && !replacing) {
+            Set<String> indexedFiles = Segments.read(index_path).getFiles();
+            filePaths.removeIf(filePath -> indexedFiles.contains(new File(filePath).getName()));
+        }
+        new File(index_path).mkdirs();
+
+        String segmentName;
+        synchronized (Segments.class) { // so a merge running meanwhile doesn't take the same name
+            String interrupted = Segments.getInterruptedBuild(index_path);
+            if (interrupted != null) {
+                String directoryName = new File(interrupted).getName();
+                segmentName = directoryName.substring(0, directoryName.length() - Segments.BUILDING.length());
+                System.out.println("resuming " + segmentName);
+            } else {
+                segmentName = Segments.newSegment(index_path);
+            }
+            segment_path = index_path + "\\" + segmentName + Segments.BUILDING;
+            // created while holding the lock, so removeUnusedSegments doesn't take it for an interrupted merge
+            manifest = new Manifest(segment_path, useStemming, replacing);
+        }
 
-        // Create postings dir
-        Path directory = Paths.get(index_path);
-        if (Files.exists(directory)) {
-            removeDir(directory);
+        int segmentDocs = createSegment(corpusPath + "\\" + stopWordsName, filePaths, useStemming, memoryBudget);
+        if (segmentDocs > 0) {
+            if (replacing) Segments.publishReplacing(index_path, segment_path, segmentName, segmentDocs);
+            else Segments.publish(index_path, segment_path, segmentName, segmentDocs);
+            Files.delete(Paths.get(index_path + "\\" + segmentName + "\\" + Manifest.FILE_NAME));
+        } else {
+            removeDir(Paths.get(segment_path));
+            if (replacing) Segments.publishReplacing(index_path, null, segmentName, 0);
+            System.out.println("no new docs in corpus");
         }
-        new File(index_path + "\\postings\\temp").mkdirs();
 
-        this.taskCount = Runtime.getRuntime().availableProcessors();
-        Task[] tasks = new Task[taskCount];
+        // Counts are of the whole index
+        if (Segments.exists(index_path)) {
+            Segments segments = Segments.read(index_path);
+            if (segments.getSegments().size() > 1 || segmentDocs == 0) {
+                languages = segments.getLanguages();
+            }
+            documentCount = segments.getDocumentCount();
+            dictionarySize = segments.getTermCount();
+            SegmentMerger.maybeMerge(index_path); // also removes the segments that were replaced
+        }
+
+        long time = System.currentTimeMillis() - start;
+        System.out.println("total time: " + time);
+    }
+
+    /**
+     * Indexes files of the corpus into a new segment, in segment path (whose manifest is open). Every step is
+     * logged in the segment's manifest (see Manifest), so if the build is interrupted, running it again resumes it.
+     * If any stage fails, the build stops and nothing is published.
+     * @param stopWordsPath path of the stop-words file
+     * @param filePaths files to index
+     * @param useStemming true to use stemmer, false otherwise
+     * @param memoryBudget bytes of heap for the postings in memory
+     * @return number of docs in segment
+     */
+    private int createSegment(String stopWordsPath, List<String> filePaths, boolean useStemming, long memoryBudget)
+            throws IOException {
 
+        this.useStemming = useStemming;
 
-        // Create tasks
-        for (int id = 0; id < taskCount; id++) {
-            tasks[id] = new Task(id);
+        try {
+            if (manifest.getDoneDocCount() >= 0) {
+                // interrupted while publishing: the segment is complete
+                Path temp = Paths.get(segment_path + "\\temp");
+                if (Files.exists(temp)) removeDir(temp);
+                languages = new TreeSet<>(Segments.readLines(segment_path + "\\languages"));
+                return manifest.getDoneDocCount();
+            }
+            return buildSegment(stopWordsPath, filePaths, memoryBudget);
+        } finally {
+            manifest.close();
         }
+    }
 
-        // Walk through files
-        List<String> filePaths = new ArrayList<>();
-        walk(corpusPath, filePaths);
-        int i = 0;
-        for (String filePath : filePaths) {
-            if (filePath.equals(stopWordsName)) continue;
-            tasks[i].filePaths.add(filePath);
-            i++;
-            if (i == taskCount) i = 0;
+    /**
+     * Indexes files of the corpus into the segment of manifest, going on from what the manifest logged
+     * @param stopWordsPath path of the stop-words file
+     * @param filePaths files to index
+     * @param memoryBudget bytes of heap for the postings in memory
+     * @return number of docs in segment
+     */
+    private int buildSegment(String stopWordsPath, List<String> filePaths, long memoryBudget) throws IOException {
+
+        stopWords = getStopWords(stopWordsPath);
+        dictionary = new ConcurrentHashMap<>();
+        cityIndex = new ConcurrentHashMap<>();
+        stemCache = new StemCache(1 << 17);
+        languages = new TreeSet<>();
+        failure = null;
+
+        // Keep the temporal postings logged by an interrupted build, and go on from them
+        removeUnloggedFiles();
+        new File(segment_path + "\\temp").mkdirs();
+        int lastPostingId = -1;
+        int lastDocId = -1;
+        for (int run : manifest.getRuns()) {
+            String path = segment_path + "\\temp\\" + run;
+            lastPostingId = Math.max(lastPostingId, run);
+            DocumentBuffer documents = DocumentBuffer.read(path + ".docs");
+            for (int i = 0; i < documents.size(); i++) lastDocId = Math.max(lastDocId, documents.getId(i));
+            sampleRun(path);
         }
+        nextPostingId = new AtomicInteger(lastPostingId + 1);
+        nextDocId = new AtomicInteger(lastDocId + 1);
+        manifest.start(lastDocId + 1);
+        Set<String> completedFiles = manifest.getCompletedFiles().keySet();
+        filePaths.removeIf(filePath -> completedFiles.contains(new File(filePath).getName()));
 
-//        for (Task task : tasks) task.run();
+        this.taskCount = Runtime.getRuntime().availableProcessors();
+        int parserCount = taskCount;
+        int inverterCount = Math.max(1, taskCount / 2);
+        // every inverter fills a buffer while the one before it may still be being written
+        this.bytesPerPosting = Math.max(1, memoryBudget / (2 * inverterCount));
+        flusher = Executors.newFixedThreadPool(inverterCount);
+
+        // Create the stages of the pipeline: files are read into rawDocs, parsed into parsedDocs, and inverted
+        BlockingQueue<RawDoc> rawDocs = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Doc> parsedDocs = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicInteger runningParsers = new AtomicInteger(parserCount);
+        List<Runnable> stages = new ArrayList<>();
+        stages.add(new DocReader(filePaths, rawDocs, parserCount));
+        for (int id = 0; id < parserCount; id++) {
+            stages.add(new ParserWorker(rawDocs, parsedDocs, runningParsers, inverterCount));
+        }
+        for (int id = 0; id < inverterCount; id++) {
+            stages.add(new Inverter(id, parsedDocs));
+        }
 
-        // run tasks
-        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(taskCount);
-        for (Task task : tasks) executor.execute(task);
+        // run stages, each one on its own thread
+        pipeline = Executors.newFixedThreadPool(stages.size());
+        for (Runnable stage : stages) pipeline.execute(stage);
         try {
-            executor.shutdown();
-            executor.awaitTermination(1, TimeUnit.HOURS);
+            pipeline.shutdown();
+            while (!pipeline.awaitTermination(1, TimeUnit.MINUTES)) {}
+            flusher.shutdown();
+            while (!flusher.awaitTermination(1, TimeUnit.MINUTES)) {}
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            fail(e);
         }
+        if (failure != null) throw new IOException("Indexing failed, run it again to resume it", failure);
+        if (useStemming) System.out.println("stem cache hits: " + stemCache.getHits()
+                + ", misses: " + stemCache.getMisses());
 
         // Write indexes to disk
-        documentCount = documentIndex.size();
-        writeDocumentsAndLanguagesIndex();
-        writeCityIndex();
+        int segmentDocs = writeDocumentsIndex();
 
         // Free up memory for merging
-        documentIndex.clear();
         cityIndex.clear();
 
         long mergeStart = System.currentTimeMillis();
 
         new Merger().run();
+        if (failure != null) throw new IOException("Merging failed, run it again to resume it", failure);
 
         long mergeTime = System.currentTimeMillis() - mergeStart;
         System.out.println("\nmerge time: " + mergeTime);
 
         writeDictionary();
-        dictionarySize = dictionary.size();
+        dictionary = null;
+        Segments.sync(segment_path);
+        manifest.done(segmentDocs);
+        removeDir(Paths.get(segment_path + "\\temp"));
+        return segmentDocs;
+    }
 
-        long time = System.currentTimeMillis() - start;
-        System.out.println("total time: " + time);
+    /**
+     * Removes from the segment directory what the manifest didn't log: temporal postings that may be half
+     * written, and final files of the segment (they are written again)
+     */
+    private void removeUnloggedFiles() throws IOException {
+        Set<String> runFiles = new HashSet<>();
+        for (int run : manifest.getRuns()) {
+            runFiles.add(String.valueOf(run));
+            runFiles.add(run + ".docs");
+        }
+        for (File file : new File(segment_path).listFiles()) {
+            if (file.getName().equals(Manifest.FILE_NAME)) continue;
+            if (!file.getName().equals("temp")) removeDir(file.toPath());
+            else for (File run : file.listFiles()) if (!runFiles.contains(run.getName())) removeDir(run.toPath());
+        }
     }
 
     /**
-     * Updates a term's data in dictionary, while taking care of the Upper/LowerCase rules.
-     * If the term doesn't exist in dictionary, add it.
-     * @param term to update
-     * @param df doc frequency to add to term's data
-     * @param cf total corpus frequency to add to term's data
-     * @param dictionary to update
-     */
-    private void updateDictionary(String term, long df, long cf , ConcurrentHashMap<String, long[]> dictionary) {
-        Character firstChar = term.charAt(0);
-        boolean isLowerCase = !(Character.isDigit(firstChar) || Character.isUpperCase(firstChar));
-        if (!Character.isDigit(firstChar)) term = term.toUpperCase(); // to make the function's logic simpler
-
-        long[] termData = dictionary.get(term);
-        if (termData != null) {
-            // term in dictionary is in uppercase
-            if (isLowerCase) {
-                // but now showed in lowercase, so must update dictionary
-                dictionary.remove(term);
-                dictionary.put(term.toLowerCase(), termData);
+     * Samples the terms of a temporal posting written by an interrupted build, as if it was just written
+     * @param path of temporal posting
+     */
+    private void sampleRun(String path) throws IOException {
+        try (RunReader reader = new RunReader(path, 0)) {
+            int termCount = 0;
+            String term;
+            while ((term = reader.nextTerm()) != null) {
+                if (termCount++ % SAMPLE_INTERVAL == 0) runSamples.add(new RunSample(term, path, reader.getTermPosition()));
             }
         }
-        else if ((termData = dictionary.get(term.toLowerCase())) == null){
-            // term is not in dictionary, either in lowercase or uppercase
-            termData = new long[3];
-            if (isLowerCase) term = term.toLowerCase();
-            dictionary.put(term, termData);
-        }
-        termData[0] += df;
-        termData[1] += cf;
+    }
+
+    /**
+     * Stops the build after an error in any of its stages
+     * @param e the error
+     */
+    private synchronized void fail(Throwable e) {
+        if (failure != null) return; // the other stages are stopped by the first error
+        failure = e;
+        e.printStackTrace();
+        if (pipeline != null) pipeline.shutdownNow();
+        if (flusher != null) flusher.shutdownNow();
     }
 
     /**
      * Gets a text with stop-words and returns a set of them
-     * @param corpusPath path of corpus
-     * @param stopWordsName name of file
+     * @param path of stop-words file
      * @return stop words set
      */
-    private static HashSet<String> getStopWords(String corpusPath, String stopWordsName) throws IOException {
-        String path = corpusPath + "\\" + stopWordsName;
+    static CharArraySet getStopWords(String path) throws IOException {
         BufferedReader reader = new BufferedReader(new FileReader(new File(path)));
         HashSet<String> stopWords = new HashSet<>();
         String line;
         while ((line = reader.readLine()) != null) {
             stopWords.add(line.trim());
         }
-        return stopWords;
+        return new CharArraySet(stopWords);
     }
 
     /**
@@ -334,7 +494,7 @@ public class Indexer {
      * @param path of root
      * @param filePaths list of files to fill up with file paths
      */
-    private static void walk(String path, List<String> filePaths) {
+    static void walk(String path, List<String> filePaths) {
         File root = new File(path);
         File[] list = root.listFiles();
         for (File file : list) {
@@ -359,178 +519,302 @@ public class Indexer {
     }
 
     /**
-     * Represents a task that will index a group of files from corpus
+     * A doc as read from its file, before parsing
      */
-    private class Task implements Runnable {
+    private static class RawDoc {
+        /**
+         * view of everything from <DOC> to </DOC>
+         */
+        private final CharSequence text;
+        private final String file;
+        private final int positionInFile;
+
+        RawDoc(CharSequence text, String file, int positionInFile) {
+            this.text = text;
+            this.file = file;
+            this.positionInFile = positionInFile;
+        }
+    }
 
-        private int id; // task id, to not overwrite other tasks' postings
-        private List<String> filePaths = new ArrayList<>(); // files to index
+    /**
+     * put in rawDocs after the last doc, once for every parser
+     */
+    private static final RawDoc NO_MORE_RAW_DOCS = new RawDoc(null, null, 0);
+    /**
+     * put in parsedDocs after the last doc, once for every inverter
+     */
+    private static final Doc NO_MORE_DOCS = new Doc();
+
+    /**
+     * First stage of indexing: reads the docs of all files of the corpus and puts them in a queue for the
+     * parsers. The queue is bounded, so reading waits whenever the parsers fall behind.
+     */
+    private class DocReader implements Runnable {
+
+        private final List<String> filePaths; // files to read
+        private final BlockingQueue<RawDoc> rawDocs;
+        private final int parserCount;
 
         /**
          * Constructor
-         * @param id of task
+         * @param filePaths files to read
+         * @param rawDocs queue to put docs in
+         * @param parserCount number of parsers that take docs from queue
          */
-        Task(int id) {
-            this.id = id;
+        DocReader(List<String> filePaths, BlockingQueue<RawDoc> rawDocs, int parserCount) {
+            this.filePaths = filePaths;
+            this.rawDocs = rawDocs;
+            this.parserCount = parserCount;
         }
 
-        /**
-         * will create the temporal postings for all files in filePaths
-         */
         @Override
         public void run() {
+            try {
+                for (String filePath : filePaths) {
+                    ReadFile reader;
+                    try {
+                        reader = new ReadFile(filePath);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        continue;
+                    }
 
-            System.out.println("task " + id);
+                    // get filename
+                    String[] splittedPath = filePath.split("\\\\");
+                    String fileName = splittedPath[splittedPath.length-1];
 
-            long taskStart = System.currentTimeMillis();
+                    int docPositionInFile = 0;
+                    // each docString is a view of everything from <DOC> to </DOC>
+                    CharSequence docString;
+                    while ((docString = reader.nextDoc()) != null) {
+                        rawDocs.put(new RawDoc(docString, fileName, docPositionInFile++));
+                    }
+                    manifest.fileRead(fileName, docPositionInFile);
+                }
+                for (int i = 0; i < parserCount; i++) rawDocs.put(NO_MORE_RAW_DOCS);
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+    }
 
-            HashMap<String, LinkedList<String[]>> termsInDocs = new HashMap<>();
-            int fileCount = 0;
-            int posting_id = id;
+    /**
+     * Second stage of indexing: parses docs taken from the reader's queue and puts them in a queue for
+     * the inverters. Every parser takes the next doc as soon as it's done with the last one, so no
+     * parser is left idle while others have docs to parse.
+     */
+    private class ParserWorker implements Runnable {
+
+        private final BlockingQueue<RawDoc> rawDocs;
+        private final BlockingQueue<Doc> parsedDocs;
+        /**
+         * parsers that didn't finish yet. The last one to finish tells the inverters.
+         */
+        private final AtomicInteger runningParsers;
+        private final int inverterCount;
 
-            // Index all files
-            for (String filePath : filePaths) {
-                fileCount += 1;
-                ArrayList<String> docStrings = null;
+        /**
+         * Constructor
+         * @param rawDocs queue to take docs from
+         * @param parsedDocs queue to put parsed docs in
+         * @param runningParsers number of parsers that didn't finish yet
+         * @param inverterCount number of inverters that take docs from parsedDocs
+         */
+        ParserWorker(BlockingQueue<RawDoc> rawDocs, BlockingQueue<Doc> parsedDocs, AtomicInteger runningParsers,
+                     int inverterCount) {
+            this.rawDocs = rawDocs;
+            this.parsedDocs = parsedDocs;
+            this.runningParsers = runningParsers;
+            this.inverterCount = inverterCount;
+        }
 
-                try {
-                // each docString is a string containing everything from <DOC> to </DOC>
-                docStrings = ReadFile.read(filePath);
-                } catch (IOException e) {
-                    e.printStackTrace();
+        @Override
+        public void run() {
+            Parse parser = new Parse(stopWords, citiesDictionary, cityIndex, months,
+                    stemCache, stopSuffixes, stopPrefixes, useStemming);
+            try {
+                RawDoc rawDoc;
+                while ((rawDoc = rawDocs.take()) != NO_MORE_RAW_DOCS) {
+                    Doc doc = parser.getParsedDoc(rawDoc.text);
+                    doc.terms = doc.terms.copy(); // the parser reuses its buffer for the next doc
+                    doc.file = rawDoc.file;
+                    doc.positionInFile = rawDoc.positionInFile;
+                    parsedDocs.put(doc);
+                }
+                if (runningParsers.decrementAndGet() == 0) {
+                    for (int i = 0; i < inverterCount; i++) parsedDocs.put(NO_MORE_DOCS);
                 }
-                if (docStrings == null || docStrings.size() == 0) continue;
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Last stage of indexing: adds parsed docs to the postings in memory. Once these take
+     * bytesPerPosting bytes, they are handed to the flusher to be written as a temporal posting
+     * (with the data of their docs), and the inverter goes on with new buffers. If the last ones
+     * handed weren't written yet, the inverter waits for them, so there are never more than two
+     * buffers per inverter.
+     */
+    private class Inverter implements Runnable {
 
-                // get filename
-                String[] splittedPath = filePath.split("\\\\");
-                String fileName = splittedPath[splittedPath.length-1];
+        private int id; // inverter id
+        private final BlockingQueue<Doc> parsedDocs;
+        /**
+         * the last temporal posting handed to the flusher
+         */
+        private Future<?> flushing;
 
-                Parse parser = new Parse(stopWords, citiesDictionary, cityIndex, months,
-                        stemCollection, stopSuffixes, stopPrefixes, useStemming);
+        /**
+         * Constructor
+         * @param id of inverter
+         * @param parsedDocs queue to take docs from
+         */
+        Inverter(int id, BlockingQueue<Doc> parsedDocs) {
+            this.id = id;
+            this.parsedDocs = parsedDocs;
+        }
+
+        /**
+         * will create the temporal postings for all docs taken from parsedDocs
+         */
+        @Override
+        public void run() {
+
+            System.out.println("inverter " + id);
+
+            long taskStart = System.currentTimeMillis();
 
-                int docPositionInFile = 0;
-                for (String docString : docStrings) {
+            PostingsBuffer termsInDocs = new PostingsBuffer();
+            DocumentBuffer documents = new DocumentBuffer(); // data of the docs in termsInDocs
 
-                    Doc doc = parser.getParsedDoc(docString);
-                    doc.file = fileName;
-                    doc.positionInFile = docPositionInFile++;
+            try {
+                Doc doc;
+                while ((doc = parsedDocs.take()) != NO_MORE_DOCS) {
+
+                    // if reached max bytes per posting
+                    if (termsInDocs.getBytes() >= bytesPerPosting) {
+                        flush(termsInDocs, documents);
+                        termsInDocs = new PostingsBuffer();
+                        documents = new DocumentBuffer();
+                    }
 
-                    LinkedList<String> terms_in_doc = doc.terms;
+                    TokenBuffer terms_in_doc = doc.terms;
+                    int docId = nextDocId.getAndIncrement();
                     int max_tf = 1;
                     int termPosition = 0;
 
                     // for every term:
-                    for (String term : terms_in_doc) {
+                    for (int i = 0; i < terms_in_doc.size(); i++) {
+                        String term = terms_in_doc.get(i);
                         // We write all terms in uppercase to temporal posting for sorting purposes
                         Character firstChar = term.charAt(0);
                         boolean isLowerCase = !Character.isUpperCase(firstChar); // assume true
                         if (!Character.isDigit(firstChar)) term = term.toUpperCase(); // check digit to not ruin Dollar rule
 
-                        // check if term is already in term postings
-                        LinkedList<String[]> termEntry = termsInDocs.get(term);
-                        if (termEntry == null) {
-                            termEntry = new LinkedList<>();
-                            termsInDocs.put(term, termEntry);
-                        }
-                        // check if there's already a term posting for this doc
-                        String[] docEntry = null;
-                        if (termEntry.size() > 0) docEntry = termEntry.getLast();
-                        if (docEntry == null || !docEntry[0].equals(doc.name)) {
-                            String[] newDocEntry = new String[5];
-                            newDocEntry[0] = doc.name;
-                            newDocEntry[1] = "U"; // assume term is always uppercase
-                            newDocEntry[2] = "f"; // assume term not in doc title
-                            newDocEntry[3] = "0";
-                            newDocEntry[4] = "";
-                            termEntry.add(newDocEntry);
-                            docEntry = newDocEntry;
-                        }
-                        if (isLowerCase) docEntry[1] = "L"; // correct to lowercase
-                        String termPositions = docEntry[4];
-
-                        // add position
-                        docEntry[4] = termPositions + " " + termPosition;
-                        int tf = Integer.parseInt(docEntry[3]) + 1;
-                        docEntry[3] = Integer.toString(tf);
+                        // add position to the term's posting for this doc
+                        int tf = termsInDocs.add(term, docId, termPosition, isLowerCase);
                         if (tf > max_tf) max_tf = tf;
                         termPosition++;
                     }
                     // Check which terms are in doc title and update index
                     for (String term : doc.title){
                         if (!Character.isDigit(term.charAt(0))) term = term.toUpperCase();
-                        LinkedList<String[]> termEntry = termsInDocs.get(term);
-                        String[] docEntry = termEntry.getLast();
-                        docEntry[2] = "t";
-                    }
-                    // Add document row to the document index:
-                    // docname|file|positionInFile|termCount|maxTf|city|language|date
-                    String[] line = {doc.name, doc.file, String.valueOf(doc.positionInFile),
-                            String.valueOf(termPosition), String.valueOf(max_tf), doc.city, doc.language, doc.date};
-                    documentIndex.add(String.join("|", line) + "\n");
-
-                    // if reached max docs per posting
-                    if (fileCount == docsPerPosting) {
-                        fileCount = 0;
-                        try {
-                            write_posting(posting_id, termsInDocs);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                        posting_id += taskCount;
-                        termsInDocs = new HashMap<>();
+                        termsInDocs.addTitleTerm(term, docId);
                     }
+                    // Add document to the document index
+                    documents.add(docId, doc, termPosition, max_tf);
                 }
-            }
-            // Write last posting
-            if (!termsInDocs.isEmpty()) {
-                try {
-                    write_posting(posting_id, termsInDocs);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                // Write last posting
+                flush(termsInDocs, documents);
+                waitForFlush();
+            } catch (Throwable e) {
+                fail(e);
             }
 
             long taskTime = System.currentTimeMillis() - taskStart;
-            System.out.println("task time: " + taskTime);
+            System.out.println("inverter time: " + taskTime);
+        }
+
+        /**
+         * Hands postings to the flusher, after the ones handed before are written
+         * @param termsInDocs postings to write. Must not be changed after this.
+         * @param documents data of the docs in postings. Must not be changed after this.
+         */
+        private void flush(PostingsBuffer termsInDocs, DocumentBuffer documents)
+                throws InterruptedException, IOException {
+            waitForFlush();
+            flushing = flusher.submit(() -> {
+                write_posting(termsInDocs, documents);
+                return null;
+            });
         }
 
         /**
-         * Writes a single temporal posting to disk for all files indexed up to now, and removes them from memory.
-         * @param posting_id id of posting (count)
-         * @param termsInDocs dictionary that maps each term to all the docs it was found in, including positions.
+         * Waits until the last postings handed to the flusher are written
          */
-        synchronized private void write_posting(int posting_id, HashMap<String, LinkedList<String[]>> termsInDocs) throws IOException {
-            String[] postingPath = {index_path, "postings\\temp", String.valueOf(posting_id)};
-            FileWriter fstream = new FileWriter(String.join("\\", postingPath), true);
-            BufferedWriter out = new BufferedWriter(fstream);
-            SortedSet<String> terms = new TreeSet<>(termsInDocs.keySet());
+        private void waitForFlush() throws InterruptedException, IOException {
+            if (flushing == null) return;
+            try {
+                flushing.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Writing a temporal posting failed", e.getCause());
+            }
+            flushing = null;
+        }
+
+        /**
+         * Writes a single temporal posting to disk for all docs inverted up to now, with the data of the docs
+         * (in a file with the same name and ".docs"), and removes them from memory. Once both are forced
+         * to the disk, the temporal posting is logged in the manifest.
+         * @param termsInDocs postings of each term in all the docs it was found in, including positions.
+         * @param documents data of the docs
+         */
+        private void write_posting(PostingsBuffer termsInDocs, DocumentBuffer documents) throws IOException {
+            if (termsInDocs.isEmpty() && documents.size() == 0) return;
+            int run = nextPostingId.getAndIncrement();
+            String[] postingPath = {segment_path, "temp", String.valueOf(run)};
+            String path = String.join("\\", postingPath);
+            PostingsWriter out = new PostingsWriter(path);
+            HashMap<String, PostingsBuffer.Postings> termsPostings = termsInDocs.getTerms();
+            SortedSet<String> terms = new TreeSet<>(termsPostings.keySet());
 
             // Go through all terms in temporal posting in sorted order
+            int termCount = 0;
             for (String term : terms) {
-                LinkedList<String[]> docsWithTerm = termsInDocs.get(term);
-                out.write(term + "\n");
-                String upperLowerCase = ""; // will be updated
-                int df = 0; // term's doc frequency
-                int cf = 0; // term's frequency in temporal posting
-                for (String[] docEntry : docsWithTerm) {
-                    upperLowerCase = docEntry[1];
-                    df++;
-                    cf += Integer.parseInt(docEntry[3]);
-                    out.write(String.join("|", docEntry[0], docEntry[2], docEntry[3], docEntry[4], "\n"));
+                PostingsBuffer.Postings docsWithTerm = termsPostings.get(term);
+                int df = docsWithTerm.size(); // term's doc frequency
+                boolean lowerCase = false; // true if term showed in lowercase in any doc
+                for (int i = 0; i < df && !lowerCase; i++) lowerCase = docsWithTerm.hasFlag(i, PostingsBuffer.LOWERCASE);
+                long termPosition = out.writeTerm(term, lowerCase);
+                if (termCount++ % SAMPLE_INTERVAL == 0) runSamples.add(new RunSample(term, path, termPosition));
+                out.startList(df);
+                int[] positions = docsWithTerm.getPositions();
+                int position = 0;
+                for (int i = 0; i < df; i++) {
+                    int tf = docsWithTerm.getTf(i);
+                    out.writePosting(docsWithTerm.getDocId(i), docsWithTerm.hasFlag(i, PostingsBuffer.IN_TITLE),
+                            tf, positions, position);
+                    position += tf;
                 }
-                out.newLine();
-                if (upperLowerCase.equals("L") && !Character.isDigit(term.charAt(0))) term = term.toLowerCase();
-                updateDictionary(term, df, cf, dictionary);
             }
+            out.sync();
             out.close();
-            postingsCount++;
+            documents.write(path + ".docs");
+            manifest.runWritten(run, documents);
+            termsInDocs.clear();
         }
     }
 
     /**
-     * Is responsible for merging all the temporal postings. The terms in all these
-     * postings are in uppercase, but the merger checks weather the terms shows in the
-     * dictionary as upper/lowercase to write it to the final posting accordingly.
+     * Is responsible for merging all the temporal postings, and for building the dictionary
+     * from them. The terms in all these postings are in uppercase, and a term goes to the
+     * dictionary in lowercase if it showed in lowercase in any of them.
+     * The terms are split into ranges of about the same size (using the samples taken while
+     * writing the temporal postings), and every range is merged by its own RangeMerger on
+     * its own thread. Then the parts are joined into the final postings file.
+     * Only the postings of the docs that go to the segment are kept (see segmentDocIds).
      */
     private class Merger implements Runnable {
 
@@ -541,97 +825,360 @@ public class Indexer {
         public void run() {
             try {
                 mergePostings();
-            } catch (IOException e) {
-                e.printStackTrace();
+            } catch (Throwable e) {
+                fail(e);
             }
         }
 
         /**
-         * Will create one final posting for the following characters:
-         * 0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ
-         * and for each character, it will run through all temporal postings and collect all the
-         * terms that start with that character.
+         * Merges all the temporal postings into the final postings file
          */
         private void mergePostings() throws IOException {
-            String chars = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-            ArrayList<BufferedReader> postings = new ArrayList<>();
-            ArrayList<String> paths = new ArrayList<>();
-            walk(index_path + "\\postings\\temp\\", paths);
-            for (String path : paths){
-                BufferedReader posting = new BufferedReader(new FileReader(new File(path)));
-                postings.add(posting);
+            String[] bounds = getRangeBounds(taskCount);
+            DocumentStore documents = new DocumentStore(segment_path); // lengths of docs, for the blocks' headers
+
+            // merge every range on its own thread
+            RangeMerger[] rangeMergers = new RangeMerger[bounds.length + 1];
+            ExecutorService executor = Executors.newFixedThreadPool(rangeMergers.length);
+            for (int i = 0; i < rangeMergers.length; i++) {
+                String from = i == 0 ? null : bounds[i - 1];
+                String to = i == bounds.length ? null : bounds[i];
+                rangeMergers[i] = new RangeMerger(i, from, to, documents);
+                executor.execute(rangeMergers[i]);
+            }
+            try {
+                executor.shutdown();
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {}
+            } catch (InterruptedException e) {
+                // the parts may still be being written, so they must not be joined
+                executor.shutdownNow();
+                throw new IOException("Merging was interrupted", e);
             }
-            for (int i = 0; i < chars.length(); i++){
-
-                long start = System.currentTimeMillis();
-
-                char character = chars.charAt(i);
-
-                // Map the terms found to their postings
-                HashMap<String, ArrayList<String>> terms = new HashMap<>();
-                for (BufferedReader posting : postings){
-                    posting.mark(1000);
-                    String term = posting.readLine();
-                    while (term != null && character == term.charAt(0)) {
-                        term = term.trim();
-                        ArrayList<String> termPostings = terms.get(term);
-                        if (termPostings == null) {
-                            termPostings = new ArrayList<>();
-                            terms.put(term, termPostings);
-                        }
-                        String line = posting.readLine();
-                        while (line != null && !line.equals("")){
-                            termPostings.add(line);
-                            line = posting.readLine();
-                        }
-                        if (line == null) break;
-                        posting.mark(1000);
-                        term = posting.readLine();
+            if (failure != null) return; // a range wasn't merged, so the parts must not be joined
+
+            // join parts and move the terms' offsets in dictionary to where their part starts
+            try (FileChannel out = new FileOutputStream(segment_path + "\\postings").getChannel()) {
+                for (RangeMerger rangeMerger : rangeMergers) {
+                    long partStart = out.position();
+                    for (long[] termData : rangeMerger.terms) termData[2] += partStart;
+                    try (FileChannel part = FileChannel.open(Paths.get(rangeMerger.path))) {
+                        long size = part.size();
+                        for (long done = 0; done < size; ) done += part.transferTo(done, size - done, out);
                     }
-                    posting.reset();
+                    Files.delete(Paths.get(rangeMerger.path));
                 }
+            }
+            runSamples.clear();
+        }
 
-                // Write the term's postings
-                String id = String.valueOf(character);
-                String path = index_path + "\\postings\\" + id;
-                RandomAccessFile mergedPosting = new RandomAccessFile(path, "rw");
-                for (Map.Entry<String, ArrayList<String>> entry : terms.entrySet())
-                {
-                    String term = entry.getKey(); // term is in uppercase
-                    long[] termData = dictionary.get(term);
-                    if (termData == null){ // term is in dictionary in lowercase
-                        term = term.toLowerCase();
-                        termData = dictionary.get(term);
-                    }
-                    if (termData != null) { // in case term has weird characters so it's not in dictionary, ignore.
-                        mergedPosting.writeBytes(term + "\n");
-                        termData[2] = mergedPosting.getFilePointer();
-                        for (String line : entry.getValue()) {
-                            mergedPosting.writeBytes(line + "\n");
-                        }
-                        mergedPosting.writeBytes("\n");
+        /**
+         * Finds the terms where to split the ranges, so that all ranges have about the same number of
+         * bytes of temporal postings. Every sample stands for the bytes from it to the next sample of its run.
+         * @param rangeCount number of ranges wanted
+         * @return sorted terms where each range (but the first) starts
+         */
+        private String[] getRangeBounds(int rangeCount) throws IOException {
+            // weigh every sample
+            HashMap<String, ArrayList<RunSample>> samplesOfRuns = new HashMap<>();
+            for (RunSample sample : runSamples) {
+                samplesOfRuns.computeIfAbsent(sample.path, path -> new ArrayList<>()).add(sample);
+            }
+            ArrayList<RunSample> samples = new ArrayList<>();
+            long totalWeight = 0;
+            for (ArrayList<RunSample> samplesOfRun : samplesOfRuns.values()) {
+                samplesOfRun.sort(Comparator.comparingLong(sample -> sample.position));
+                long end = Files.size(Paths.get(samplesOfRun.get(0).path));
+                for (int i = samplesOfRun.size() - 1; i >= 0; i--) {
+                    RunSample sample = samplesOfRun.get(i);
+                    sample.weight = end - sample.position;
+                    end = sample.position;
+                    totalWeight += sample.weight;
+                }
+                samples.addAll(samplesOfRun);
+            }
+            samples.sort(Comparator.comparing(sample -> sample.term));
+
+            // cut where the weight so far reaches the next part of the total weight
+            ArrayList<String> bounds = new ArrayList<>();
+            long weight = 0;
+            for (RunSample sample : samples) {
+                if (weight * rangeCount >= (bounds.size() + 1) * totalWeight && bounds.size() < rangeCount - 1
+                        && (bounds.isEmpty() || !bounds.get(bounds.size() - 1).equals(sample.term))) {
+                    bounds.add(sample.term);
+                }
+                weight += sample.weight;
+            }
+            return bounds.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * Merges the terms of a range, from all temporal postings, into a part of the final postings, and
+     * adds them to the dictionary. The ranges don't share terms, so the mergers never update the same entry:
+     * a k-way merge where the next term to write is always the smallest current term of all the
+     * temporal postings, since all of them are sorted by term. Only the postings of one term are
+     * held in memory at a time.
+     */
+    private class RangeMerger implements Runnable {
+
+        /**
+         * first term of range (null for no limit)
+         */
+        private final String from;
+        /**
+         * first term after range (null for no limit)
+         */
+        private final String to;
+        /**
+         * path of the part of the final postings
+         */
+        private final String path;
+        /**
+         * data (in dictionary) of the terms written, with their offsets in the part
+         */
+        private final ArrayList<long[]> terms = new ArrayList<>();
+        /**
+         * documents of the segment
+         */
+        private final DocumentStore documents;
+
+        /**
+         * Constructor
+         * @param id of range
+         * @param from first term of range (null for no limit)
+         * @param to first term after range (null for no limit)
+         * @param documents of the segment
+         */
+        RangeMerger(int id, String from, String to, DocumentStore documents) {
+            this.from = from;
+            this.to = to;
+            this.path = segment_path + "\\temp\\part" + id;
+            this.documents = documents;
+        }
+
+        @Override
+        public void run() {
+            try {
+                merge();
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        private void merge() throws IOException {
+            // open every run at the last sample before the range
+            HashMap<String, Long> starts = new HashMap<>();
+            for (RunSample sample : runSamples) {
+                Long start = starts.get(sample.path);
+                boolean beforeRange = from != null && sample.term.compareTo(from) <= 0;
+                if (start == null) start = 0L;
+                if (beforeRange && sample.position > start) start = sample.position;
+                starts.put(sample.path, start);
+            }
+            PriorityQueue<Run> runs = new PriorityQueue<>();
+            for (Map.Entry<String, Long> start : starts.entrySet()) {
+                Run run = new Run(start.getKey(), start.getValue());
+                if (run.next(from, to)) runs.add(run);
+                else run.close();
+            }
+
+            TermPostings postings = new TermPostings(segmentDocIds);
+            try (PostingsWriter part = new PostingsWriter(path, true)) {
+                while (!runs.isEmpty()) {
+                    // collect the term's postings from all the runs that have it
+                    String term = runs.peek().term; // term is in uppercase
+                    postings.clear();
+                    while (!runs.isEmpty() && runs.peek().term.equals(term)) {
+                        Run run = runs.poll();
+                        postings.read(run.reader);
+                        if (run.next(from, to)) runs.add(run);
+                        else run.close();
                     }
+
+                    if (postings.size == 0) continue; // all its docs are left out of the segment
+
+                    // Write the term's postings, and its df, cf, position, max tf and min doc length to dictionary
+                    long listPosition = postings.write(part, documents);
+                    long[] termData = {postings.size, postings.cf, listPosition, part.getMaxTf(),
+                            part.getMinLength()};
+                    if (postings.lowerCase && !Character.isDigit(term.charAt(0))) term = term.toLowerCase();
+                    dictionary.put(term, termData);
+                    terms.add(termData);
+                }
+            } finally {
+                for (Run run : runs) run.close(); // left open if the merge stopped partway
+            }
+        }
+    }
+
+    /**
+     * A temporal posting being read by a RangeMerger, one term at a time
+     */
+    private class Run implements Comparable<Run> {
+
+        private RunReader reader;
+        /**
+         * current term
+         */
+        private String term;
+
+        /**
+         * Constructor
+         * @param path of temporal posting
+         * @param position of the term from where to start reading
+         */
+        Run(String path, long position) throws IOException {
+            reader = new RunReader(path, position);
+        }
+
+        /**
+         * Moves to the next term of a range
+         * @param from first term of range (null for no limit)
+         * @param to first term after range (null for no limit)
+         * @return false if there are no more terms in range
+         */
+        boolean next(String from, String to) throws IOException {
+            term = reader.nextTerm();
+            while (term != null && from != null && term.compareTo(from) < 0) term = reader.nextTerm();
+            return term != null && (to == null || term.compareTo(to) < 0);
+        }
+
+        void close() throws IOException {
+            reader.close();
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            return term.compareTo(other.term);
+        }
+    }
+
+    /**
+     * The postings of a term from all the temporal postings that have it, until they are written
+     * in order of doc id
+     */
+    private static class TermPostings {
+
+        private int size;
+        /**
+         * doc id (high 32 bits) and index of every posting, to sort them
+         */
+        private long[] order = new long[16];
+        private int[] tfs = new int[16];
+        private boolean[] inTitle = new boolean[16];
+        /**
+         * where the positions of every posting start
+         */
+        private int[] positionStarts = new int[16];
+        private int[] positions = new int[64];
+        private int positionCount;
+        /**
+         * total frequency of the term in all postings
+         */
+        private long cf;
+        /**
+         * true if the term showed in lowercase in any of the runs read
+         */
+        private boolean lowerCase;
+        /**
+         * ids of the docs that go to the segment, in order (null for all)
+         */
+        private final int[] docIds;
+
+        /**
+         * Constructor
+         * @param docIds ids of the docs that go to the segment, in order, so the id of a doc in the
+         *               segment is its index here (null for all docs, with the same ids)
+         */
+        TermPostings(int[] docIds) {
+            this.docIds = docIds;
+        }
+
+        void clear() {
+            size = 0;
+            positionCount = 0;
+            cf = 0;
+            lowerCase = false;
+        }
+
+        /**
+         * Reads the list of the current term of a run
+         * @param reader of run
+         */
+        void read(RunReader reader) throws IOException {
+            lowerCase |= reader.isLowerCase();
+            int docId;
+            while ((docId = reader.nextDoc()) >= 0) {
+                if (docIds != null && (docId = Arrays.binarySearch(docIds, docId)) < 0) continue;
+                if (size == order.length) {
+                    order = Arrays.copyOf(order, size * 2);
+                    tfs = Arrays.copyOf(tfs, size * 2);
+                    inTitle = Arrays.copyOf(inTitle, size * 2);
+                    positionStarts = Arrays.copyOf(positionStarts, size * 2);
+                }
+                int tf = reader.getTf();
+                cf += tf;
+                if (positions.length - positionCount < tf) {
+                    positions = Arrays.copyOf(positions, Math.max(positions.length * 2, positionCount + tf));
                 }
-                mergedPosting.close();
+                order[size] = (long) docId << 32 | size;
+                tfs[size] = tf;
+                inTitle[size] = reader.isInTitle();
+                positionStarts[size] = positionCount;
+                positionCount += reader.readPositions(positions, positionCount);
+                size++;
+            }
+        }
 
-                long time = System.currentTimeMillis() - start;
-                System.out.println(character + " time: " + time);
+        /**
+         * Writes the postings in order of doc id
+         * @param out writer of postings
+         * @param documents of the segment, with the length of every doc
+         * @return position of list
+         */
+        long write(PostingsWriter out, DocumentStore documents) throws IOException {
+            Arrays.sort(order, 0, size);
+            long start = out.startList(size);
+            for (int i = 0; i < size; i++) {
+                int posting = (int) order[i];
+                int docId = (int) (order[i] >>> 32);
+                out.writePosting(docId, inTitle[posting], tfs[posting], positions, positionStarts[posting],
+                        documents.getTermCount(docId));
             }
-            for (BufferedReader posting : postings) posting.close();
-            removeDir(Paths.get(index_path + "\\postings\\temp"));
+            return start;
+        }
+    }
+
+    /**
+     * A term of a temporal posting, taken every SAMPLE_INTERVAL terms to know how the terms
+     * are spread, and from where to start reading a temporal posting
+     */
+    private static class RunSample {
+        private final String term;
+        private final String path;
+        private final long position;
+        /**
+         * bytes from this sample to the next one of its temporal posting
+         */
+        private long weight;
+
+        RunSample(String term, String path, long position) {
+            this.term = term;
+            this.path = path;
+            this.position = position;
         }
     }
 
     /**
      * Writes the city index to disk
+     * @param cities data of every city of the docs in segment
      */
-    private void writeCityIndex() throws IOException {
-        String[] citiesPath = {index_path, "cities"};
+    private void writeCityIndex(SortedMap<String, String[]> cities) throws IOException {
+        String[] citiesPath = {segment_path, "cities"};
         FileWriter fstream = new FileWriter(String.join("\\", citiesPath), true);
         BufferedWriter out = new BufferedWriter(fstream);
-        SortedSet<String> cities = new TreeSet<>(cityIndex.keySet());
-        for (String city : cities) {
-            String[] city_data = cityIndex.get(city);
+        for (String city : cities.keySet()) {
+            String[] city_data = cities.get(city);
             String[] line = new String[city_data.length + 1];
             line[0] = city;
             for (int i = 0; i < city_data.length; i++) line[i + 1] = city_data[i];
@@ -644,42 +1191,76 @@ public class Indexer {
      * Writes the dictionary to disk
      */
     private void writeDictionary() throws IOException {
-        String[] dictionaryPath = {index_path, "dictionary"};
-        FileWriter fstream = new FileWriter(String.join("\\", dictionaryPath), true);
-        BufferedWriter out = new BufferedWriter(fstream);
-        SortedSet<String> terms = new TreeSet<>(dictionary.keySet());
-        for (String term : terms) {
-            long[] term_data = dictionary.get(term);
-            String[] line = new String[term_data.length + 1];
-            line[0] = term;
-            line[1] = Long.toString(term_data[0]);
-            line[2] = Long.toString(term_data[1]);
-            line[3] = Long.toString(term_data[2]);
-            out.write(String.join("|", line) + "\n");
-        }
-        out.close();
+        Segments.writeDictionary(segment_path, dictionary);
     }
 
     /**
-     * Writes the documents' index to disk.
+     * Writes the documents' index to disk (see DocumentStore), and the cities and languages found in docs.
+     * The docs are read from the data of the temporal postings logged in the manifest, and only the docs
+     * of files that were completed go to the segment: the others were inverted by an interrupted build,
+     * and their files were indexed again. Then the docs that go get ids from 0 on, in order.
+     * @return number of docs in segment
      */
-    private void writeDocumentsAndLanguagesIndex() throws IOException {
-        String[] documentsPath = {index_path, "documents"};
-        BufferedWriter out = new BufferedWriter(new FileWriter(String.join("\\", documentsPath), true));
-        SortedSet<String> lines = new TreeSet<>(documentIndex);
-        out.write("-documentCount=" + (int)documentCount + "\n");
-        for (String line : lines){
-            String[] data = line.split("\\|");
-            String language = data[6].trim();
-            if (language.length() > 0) {
-                languages.add(language);
+    private int writeDocumentsIndex() throws IOException {
+        HashMap<String, Integer> completedFiles = manifest.getCompletedFiles();
+        List<DocumentBuffer> runsDocuments = new ArrayList<>();
+        int segmentDocs = 0;
+        for (int run : manifest.getRuns()) {
+            DocumentBuffer documents = DocumentBuffer.read(segment_path + "\\temp\\" + run + ".docs");
+            runsDocuments.add(documents);
+            for (int i = 0; i < documents.size(); i++) {
+                if (isInSegment(documents, i, completedFiles)) segmentDocs++;
             }
-            out.write(line);
         }
-        out.close();
-        String[] languagesPath = {index_path, "languages"};
-        out = new BufferedWriter(new FileWriter(String.join("\\", languagesPath), true));
+        int[] docIds = new int[segmentDocs];
+        int n = 0;
+        for (DocumentBuffer documents : runsDocuments) {
+            for (int i = 0; i < documents.size(); i++) {
+                if (isInSegment(documents, i, completedFiles)) docIds[n++] = documents.getId(i);
+            }
+        }
+        Arrays.sort(docIds);
+        segmentDocIds = segmentDocs == 0 || docIds[segmentDocs - 1] == segmentDocs - 1 ? null : docIds;
+
+        DocumentBuffer segmentDocuments = new DocumentBuffer();
+        SortedSet<String> files = new TreeSet<>();
+        TreeMap<String, String[]> cities = new TreeMap<>();
+        for (DocumentBuffer documents : runsDocuments) {
+            for (int i = 0; i < documents.size(); i++) {
+                if (!isInSegment(documents, i, completedFiles)) continue;
+                String file = documents.getFile(i);
+                int id = segmentDocIds == null ? documents.getId(i) : Arrays.binarySearch(docIds, documents.getId(i));
+                segmentDocuments.add(id, documents, i);
+                files.add(file);
+                String city = documents.getCity(i);
+                if (city.length() > 0) {
+                    cities.computeIfAbsent(city, c -> cityIndex.containsKey(c) ? cityIndex.get(c)
+                            : citiesDictionary.getOrDefault(c, new String[]{"", "", ""}));
+                }
+                String language = documents.getLanguage(i);
+                if (language.length() > 0) {
+                    languages.add(language);
+                }
+            }
+        }
+        DocumentStore.write(segment_path, new DocumentBuffer[]{segmentDocuments}, files, cities.keySet(), languages);
+        writeCityIndex(cities);
+        String[] languagesPath = {segment_path, "languages"};
+        BufferedWriter out = new BufferedWriter(new FileWriter(String.join("\\", languagesPath), true));
         for (String line : languages) out.write(line + "\n");
         out.close();
+        return segmentDocs;
+    }
+
+    /**
+     * @param documents data of the docs of a temporal posting
+     * @param i index of doc in documents
+     * @param completedFiles files that were completed, mapped to the first doc id of the start they were
+     *                       completed in (see Manifest)
+     * @return true if the doc goes to the segment: its file was completed, and not in a later start
+     */
+    private static boolean isInSegment(DocumentBuffer documents, int i, HashMap<String, Integer> completedFiles) {
+        Integer firstDocId = completedFiles.get(documents.getFile(i));
+        return firstDocId != null && documents.getId(i) >= firstDocId;
     }
 }
@@ -0,0 +1,210 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Log of the work done while building a segment, so that a build that dies partway through can be resumed
+ * instead of started over. Every line is forced to the disk before it's counted as written:
+ *
+ * stemming|true/false      first line, the build can only be resumed with the same setting
+ * replacing|true/false     second line, true if the segment will replace the segments of the index (so it
+ *                          has all the files of corpus), false if it's added to them (so it only has the
+ *                          files not in index). The build can only be resumed the same way.
+ * start|docId              the build was (re)started, and its docs get ids from docId on
+ * run|id                   temporal posting "id" and the data of its docs ("id.docs") are complete on disk
+ * file|name                all the docs of corpus file "name" read since the last start are in runs
+ *                          logged before this line
+ * done|docCount            the segment's final files are complete on disk, only publishing is left
+ *
+ * A line only counts once its newline is on the disk: when a build is resumed, a last line without it
+ * (half written when the build died) is cut off the file, since its start could look like a whole line
+ * ("run|12" cut to "run|1").
+ *
+ * When resumed, the files logged are not read again, the runs logged are merged with the new ones,
+ * and every other temporal posting is removed (it may be half written). Docs of files that were not
+ * complete may be in runs that were logged: those docs are left out of the segment, since their
+ * files are indexed again (the docs of a file that go to the segment are the ones with ids from the
+ * start where the file was logged on).
+ */
+public class Manifest implements Closeable {
+
+    /**
+     * name of the manifest file in the segment directory
+     */
+    public static final String FILE_NAME = "manifest";
+
+    private final FileChannel channel;
+    /**
+     * runs logged, in order
+     */
+    private final List<Integer> runs = new ArrayList<>();
+    /**
+     * files whose docs are all in logged runs, mapped to the first doc id of the start they were logged in
+     */
+    private final HashMap<String, Integer> completedFiles = new HashMap<>();
+    /**
+     * first doc id of the last start
+     */
+    private int firstDocId;
+    /**
+     * files read in this build that are not complete yet, mapped to {docs read (-1 until the whole
+     * file was read), docs in logged runs}
+     */
+    private final HashMap<String, int[]> pendingFiles = new HashMap<>();
+    /**
+     * docs in segment, or -1 if the segment's final files were not written yet
+     */
+    private int doneDocCount = -1;
+    private final boolean resumed;
+
+    /**
+     * Opens the manifest of a segment that's being built. If it has a manifest of a build with the same
+     * stemming setting, that replaces the index or is added to it as this one, that build is resumed. Else
+     * a new manifest is started.
+     * @param segmentPath path of segment directory
+     * @param useStemming true if stemming is used
+     * @param replacing true if the segment will replace the segments of the index, false if it's added
+     */
+    public Manifest(String segmentPath, boolean useStemming, boolean replacing) throws IOException {
+        Path path = Paths.get(segmentPath + "\\" + FILE_NAME);
+        boolean resume = false;
+        int completeLength = 0; // bytes of the manifest up to the end of its last complete line
+        if (Files.exists(path)) {
+            byte[] bytes = Files.readAllBytes(path);
+            completeLength = bytes.length;
+            while (completeLength > 0 && bytes[completeLength - 1] != '\n') completeLength--;
+            List<String> lines = new ArrayList<>();
+            for (String line : new String(bytes, 0, completeLength, StandardCharsets.UTF_8).split("\n")) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+            resume = lines.size() >= 2 && lines.get(0).equals("stemming|" + useStemming)
+                    && lines.get(1).equals("replacing|" + replacing);
+            if (resume) {
+                for (String line : lines.subList(2, lines.size())) {
+                    int separator = line.indexOf('|');
+                    String type = line.substring(0, separator);
+                    String value = line.substring(separator + 1);
+                    if (type.equals("start")) firstDocId = Integer.parseInt(value);
+                    else if (type.equals("run")) runs.add(Integer.parseInt(value));
+                    else if (type.equals("file")) completedFiles.put(value, firstDocId);
+                    else if (type.equals("done")) doneDocCount = Integer.parseInt(value);
+                }
+            }
+        }
+        this.resumed = resume;
+        if (resume) {
+            // cut off the last line if it's half written, and go on after the last complete one
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            channel.truncate(completeLength);
+            channel.position(completeLength);
+            channel.force(true);
+        } else {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            append("stemming|" + useStemming);
+            append("replacing|" + replacing);
+        }
+    }
+
+    /**
+     * @return true if an interrupted build is being resumed
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * @return the runs logged
+     */
+    public synchronized List<Integer> getRuns() {
+        return new ArrayList<>(runs);
+    }
+
+    /**
+     * @return files whose docs are all in logged runs, mapped to the first doc id of the start they were
+     * logged in. The docs of a file with smaller ids are from a start that was interrupted.
+     */
+    public synchronized HashMap<String, Integer> getCompletedFiles() {
+        return new HashMap<>(completedFiles);
+    }
+
+    /**
+     * @return number of docs in segment, or -1 if the segment's final files were not written yet
+     */
+    public int getDoneDocCount() {
+        return doneDocCount;
+    }
+
+    /**
+     * Logs that the build (re)starts
+     * @param docId first doc id of the docs indexed from now on
+     */
+    public synchronized void start(int docId) throws IOException {
+        append("start|" + docId);
+        firstDocId = docId;
+    }
+
+    /**
+     * Logs that all the docs of a corpus file were read
+     * @param file name of file
+     * @param docCount number of docs in file
+     */
+    public synchronized void fileRead(String file, int docCount) throws IOException {
+        int[] counts = pendingFiles.computeIfAbsent(file, f -> new int[2]);
+        counts[0] = docCount;
+        checkCompleted(file, counts);
+    }
+
+    /**
+     * Logs a temporal posting, whose postings and docs are already forced to the disk
+     * @param run id of temporal posting
+     * @param documents the docs in the temporal posting
+     */
+    public synchronized void runWritten(int run, DocumentBuffer documents) throws IOException {
+        append("run|" + run);
+        runs.add(run);
+        for (int i = 0; i < documents.size(); i++) {
+            String file = documents.getFile(i);
+            int[] counts = pendingFiles.computeIfAbsent(file, f -> new int[]{-1, 0});
+            counts[1]++;
+            checkCompleted(file, counts);
+        }
+    }
+
+    /**
+     * Logs that the segment's final files are complete on disk
+     * @param docCount number of docs in segment
+     */
+    public void done(int docCount) throws IOException {
+        append("done|" + docCount);
+        doneDocCount = docCount;
+    }
+
+    /**
+     * Logs a file if all its docs were read and are in logged runs
+     */
+    private void checkCompleted(String file, int[] counts) throws IOException {
+        if (counts[0] >= 0 && counts[1] == counts[0]) {
+            append("file|" + file);
+            completedFiles.put(file, firstDocId);
+            pendingFiles.remove(file);
+        }
+    }
+
+    /**
+     * Writes a line and forces it to the disk
+     */
+    private synchronized void append(String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) channel.write(bytes);
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -17,31 +17,38 @@ public class Parse {
      */
     private HashMap<String, String> months;
     /**
-     * prefixes to remove
+     * lookup table of prefixes to remove
      */
-    private HashSet<Character> stopPrefixes;
+    private boolean[] stopPrefixes;
     /**
-     * suffixes to remove
+     * lookup table of suffixes to remove
      */
-    private HashSet<Character> stopSuffixes;
+    private boolean[] stopSuffixes;
     /**
-     * stem dictionary, for not using the stemmer for words that we already found what their stem is.
+     * lookup table of the characters that are removed from tokens
+     */
+    private static final boolean[] IGNORED_CHARS = new boolean[128];
+    static {
+        for (char character : "!@;+?\"*()<>{}=[]#|&,`".toCharArray()) IGNORED_CHARS[character] = true;
+    }
+    /**
+     * stem cache, for not using the stemmer for words that we already found what their stem is.
      * Why? Because stemming takes a very long time, and holding the stems in memory is not a problem
      * considering the time it will save.
      */
-    private ConcurrentHashMap<String, String> stem_collection;
+    private StemCache stem_cache;
     /**
-     * token list from doc
+     * token list from doc, reused for every doc
      */
-    private LinkedList<String> tokens;
+    private TokenBuffer tokens = new TokenBuffer();
     /**
-     * term list from doc (tokens after parsing)
+     * term list from doc (tokens after parsing), reused for every doc
      */
-    private LinkedList<String> terms;
+    private TokenBuffer terms = new TokenBuffer(1024);
     /**
      * stop-words set
      */
-    private HashSet stop_words;
+    private CharArraySet stop_words;
     /**
      * the stemmer
      */
@@ -59,18 +66,34 @@ public class Parse {
      * cities than have been found in docs
      */
     private ConcurrentHashMap<String, String[]> cityIndex;
+    /**
+     * scanner for the tags of docs
+     */
+    private TrecScanner scanner = new TrecScanner();
+    /**
+     * shape of the token that is being transformed into a term
+     */
+    private TokenShape shape = new TokenShape();
+    /**
+     * shape of a token after it, when a rule needs to know if it's a number
+     */
+    private TokenShape lookahead = new TokenShape();
+    /**
+     * holds the characters of the token being read by the tokenizer
+     */
+    private char[] tokenBuffer = new char[64];
 
     /**
      * Constructor. Creates months, prefixes and suffixes sets.
      * @param stop_words set
      */
-    public Parse(HashSet stop_words, HashMap cities_dictionary, ConcurrentHashMap cityIndex, HashMap months,
-                 ConcurrentHashMap stem_collection, HashSet stopSuffixes, HashSet stopPrefixes, boolean use_stemming) {
+    public Parse(CharArraySet stop_words, HashMap cities_dictionary, ConcurrentHashMap cityIndex, HashMap months,
+                 StemCache stem_cache, boolean[] stopSuffixes, boolean[] stopPrefixes, boolean use_stemming) {
         this.stop_words = stop_words;
         this.cities_dictionary = cities_dictionary;
         this.cityIndex = cityIndex;
         this.use_stemming = use_stemming;
-        this.stem_collection = stem_collection;
+        this.stem_cache = stem_cache;
         this.months = months;
         this.stopPrefixes = stopPrefixes;
         this.stopSuffixes = stopSuffixes;
@@ -80,55 +103,114 @@ public class Parse {
     /**
      * Parse all the documents from file in file_path. Gets a Doc array from ReadFile where each Doc.lines
      * is a list of the lines in doc, but each Doc.terms is still null.
-     * @param docString String of doc to be parsed (contains all tags between <DOC> and </DOC> including that tag)
+     * @param docString text of doc to be parsed (contains all tags between <DOC> and </DOC> including that tag)
      * @return array of Docs where each Doc.terms is the list of the doc's terms
      */
-    public Doc getParsedDoc(String docString) {
+    public Doc getParsedDoc(CharSequence docString) {
+        return getParsedDoc(docString, true);
+    }
+
+    /**
+     * Parses a doc, getting its tags with the scanner or with Jsoup
+     * @param docString text of doc to be parsed (contains all tags between <DOC> and </DOC> including that tag)
+     * @param useScanner true to get the tags with the scanner (when it understands the doc), false to always
+     *                   get them with Jsoup (see TrecScannerParity)
+     * @return the doc, whose terms are the list of the doc's terms
+     */
+    Doc getParsedDoc(CharSequence docString, boolean useScanner) {
 
         Doc doc = new Doc();
-        tokens = new LinkedList<>();
-        terms = new LinkedList<>();
-
+        tokens.clear();
+        terms.clear();
 
-        // Get structure from XML text and set doc's fields
-        Document docStructure = Jsoup.parse(docString, "", Parser.xmlParser());
-        setDocDetails(doc, docStructure);
+        // Get tags from text and set doc's fields
+        CharSequence text;
+        if (useScanner && scanner.scan(docString)) {
+            setDocDetails(doc, scanner.getDocNo(), scanner.getCity(), scanner.getLanguage(), scanner.getTitle(),
+                    scanner.getDate1(), scanner.getDate());
+            text = scanner.getText();
+        } else {
+            // scanner couldn't understand the doc, so get structure from XML text
+            Document docStructure = Jsoup.parse(docString.toString(), "", Parser.xmlParser());
+            setDocDetails(doc, docStructure);
+            text = docStructure.select("TEXT").text();
+        }
 
         // tokenize lines and get terms from tokens
-        String[] lines = docStructure.select("TEXT").text().split("\n");
-        docStructure = null;
-        for (String line : lines) tokenize(line);
+        tokenizeLines(text);
         setTerms(doc);
         return doc;
     }
 
+    /**
+     * Tokenizes a doc's text without getting terms from its tokens (see TokenizerBench)
+     * @param text of doc
+     * @return the tokens, which are reused for the next doc
+     */
+    TokenBuffer getTokens(CharSequence text) {
+        tokens.clear();
+        tokenizeLines(text);
+        return tokens;
+    }
+
+    /**
+     * Add the tokens of every line of a text to token list
+     * @param text to tokenize
+     */
+    private void tokenizeLines(CharSequence text) {
+        int lineStart = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                tokenize(text, lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        tokenize(text, lineStart, text.length());
+    }
+
     /**
      * Get all doc details from XML structure and set them to doc's fields
      * @param doc to set fields to
      * @param docStructure to get details from
      */
     private void setDocDetails(Doc doc, Document docStructure) {
-        doc.name = docStructure.select("DOCNO").text();
         Elements FTags = docStructure.select("F");
         String city = "";
         String language = "";
         for (Element tag : FTags){
             if (tag.attr("P").equals("104")) city = tag.text();
-            if (tag.attr("P").equals("105")){
-                String[] languageTag = tag.text().split(" ");
-                if (languageTag.length > 0) language = languageTag[0].trim();
-            }
+            if (tag.attr("P").equals("105")) language = tag.text();
         }
+        String title = docStructure.select("TI").text();
+        if (title == null) title = docStructure.select("<HEADLINE>").text();
+        setDocDetails(doc, docStructure.select("DOCNO").text(), city, language, title,
+                docStructure.select("DATE1").text(), docStructure.select("DATE").select("P").text());
+    }
+
+    /**
+     * Set the doc's fields from the text of its tags
+     * @param doc to set fields to
+     * @param name text of the DOCNO tag
+     * @param city text of the F P=104 tag
+     * @param languageTag text of the F P=105 tag
+     * @param title text of the TI tag
+     * @param date1 text of the DATE1 tag
+     * @param datePTag text of the P tags inside the DATE tag
+     */
+    private void setDocDetails(Doc doc, String name, String city, String languageTag, String title,
+                               String date1, String datePTag) {
+        doc.name = name;
+        String language = "";
+        String[] languageWords = languageTag.split(" ");
+        if (languageWords.length > 0) language = languageWords[0].trim();
         if (city.length() > 0 && Character.isAlphabetic(city.charAt(0))) setDocCity(doc, city);
         if (language.length() > 0 && language.length() > 2) doc.language = language.toUpperCase();
 
         // get title
-        String title = docStructure.select("TI").text();
-        if (title == null) title = docStructure.select("<HEADLINE>").text();
         if (title != null) setDocTitle(doc, title, city.length() > 0);
 
         // get date
-        String date = docStructure.select("DATE1").text();
+        String date = date1;
         if (date.length() > 0){
             // date in from "DAY MONTH YEAR..."
             String[] words = date.trim().split(" ");
@@ -138,7 +220,7 @@ public class Parse {
             }
             else date = "";
         } else{
-            date = docStructure.select("DATE").select("P").text();
+            date = datePTag;
             if (date.length() > 0) {
                 // date in form "MONTH DAY, YEAR,..."
                 String[] words = date.trim().split(" ");
@@ -201,9 +283,9 @@ public class Parse {
         tokenize(line);
         setTerms(doc);
         boolean skippedCity = false;
-        for (String term : terms){
+        for (int i = 0; i < terms.size(); i++){
             if (gotCity && !skippedCity) skippedCity = true;
-            else doc.title.add(term);
+            else doc.title.add(terms.get(i));
         }
     }
 
@@ -234,68 +316,82 @@ public class Parse {
      * @param line to tokenize
      */
     private void tokenize(String line) {
-        StringBuilder stringBuilder = new StringBuilder();
-        line = line.trim().concat(" "); // Add one space at end to ensure last token is taken
-        int length = line.length();
-        for (int i = 0; i < length; i++) {
-            char character = line.charAt(i);
-            switch (character) {
-                case '!': break;
-                case '@': break;
-                case ';': break;
-                case '+': break;
-//                case ':': break;
-                case '?': break;
-                case '"': break;
-                case '*': break;
-                case '(': break;
-                case ')': break;
-                case '<': break;
-                case '>': break;
-                case '{': break;
-                case '}': break;
-                case '=': break;
-                case '[': break;
-                case ']': break;
-                case '#': break;
-                case '|': break;
-                case '&': break;
-                case ',': break;
-                case '`': break;
-                case ' ': {
-                    if (stringBuilder.length() > 0) {
-                        try {
-                            char firstChar = stringBuilder.charAt(0);
-                            while (stopPrefixes.contains(firstChar)) {
-                                stringBuilder.deleteCharAt(0);
-                                firstChar = stringBuilder.charAt(0);
-                            }
-                            char lastChar = stringBuilder.charAt(stringBuilder.length() - 1);
-                            while (stopSuffixes.contains(lastChar)) {
-                                stringBuilder.deleteCharAt(stringBuilder.length() - 1);
-                                lastChar = stringBuilder.charAt(stringBuilder.length() - 1);
-                            }
-                            String token = stringBuilder.toString().toLowerCase();
-                            if (token.length() > 0) {
-                                // Do not stop at the following stop words!
-                                if (token.equals("between")
-                                        || token.equals("and")
-                                        || token.equals("m")
-                                        || token.equals("am")
-                                        || !stop_words.contains(token)) {
-                                    tokens.add(stringBuilder.toString());
-                                }
-                            }
-                        } catch (NullPointerException | StringIndexOutOfBoundsException ignored) {
-                        }
-                        stringBuilder = new StringBuilder();
-                    }
-                }
-                break;
-                default:
-                    stringBuilder.append(character);
+        tokenize(line, 0, line.length());
+    }
+
+    /**
+     * Add tokens without symbols to token list. Tokens are separated by spaces, and a token's
+     * String is only created if the token is not a stop word.
+     * @param text holding the line to tokenize
+     * @param start where line starts in text
+     * @param end where line ends in text
+     */
+    private void tokenize(CharSequence text, int start, int end) {
+        // trim line
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char character = text.charAt(i);
+            if (character == ' ') {
+                addToken(length);
+                length = 0;
+            } else if (character >= 128 || !IGNORED_CHARS[character]) {
+                if (length == tokenBuffer.length) tokenBuffer = Arrays.copyOf(tokenBuffer, length * 2);
+                tokenBuffer[length++] = character;
             }
         }
+        addToken(length);
+    }
+
+    /**
+     * Trims the token in the token buffer, and adds it to token list if it's not a stop word
+     * @param length of token in token buffer
+     */
+    private void addToken(int length) {
+        int start = 0;
+        int end = length;
+        while (start < end && isIn(stopPrefixes, tokenBuffer[start])) start++;
+        while (end > start && isIn(stopSuffixes, tokenBuffer[end - 1])) end--;
+        if (start == end) return;
+        // Do not stop at the following stop words!
+        if (isKeptStopWord(start, end - start) || !stop_words.contains(tokenBuffer, start, end - start)) {
+            tokens.add(new String(tokenBuffer, start, end - start));
+        }
+    }
+
+    /**
+     * Checks if a character is in a lookup table
+     * @param table to check
+     * @param character to look up
+     * @return true if in table
+     */
+    private static boolean isIn(boolean[] table, char character) {
+        return character < table.length && table[character];
+    }
+
+    /**
+     * Checks if the token in the token buffer is one of the stop words that the rules need:
+     * "between", "and", "m" and "am".
+     * @param start of token in buffer
+     * @param length of token
+     * @return true if token must not be stopped
+     */
+    private boolean isKeptStopWord(int start, int length) {
+        switch (length) {
+            case 1: return regionIs(start, "m");
+            case 2: return regionIs(start, "am");
+            case 3: return regionIs(start, "and");
+            case 7: return regionIs(start, "between");
+            default: return false;
+        }
+    }
+
+    private boolean regionIs(int start, String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.toLowerCase(tokenBuffer[start + i]) != word.charAt(i)) return false;
+        }
+        return true;
     }
 
     /**
@@ -303,18 +399,13 @@ public class Parse {
      * @param doc to set terms to
      */
     private void setTerms(Doc doc) {
-        try {
-            while (true) {
-                String term = getTerm(tokens.remove());
-                term = cleanString(term); // need to clean again just in case
-                if (term.length() > 0 && !stop_words.contains(term.toLowerCase())) {
-                    //
-//                    System.out.println(term);
-                    //
-                    terms.add(term);
-                }
+        while (tokens.hasNext()) {
+            String term = getTerm(tokens.next());
+            term = cleanString(term); // need to clean again just in case
+            if (term.length() > 0 && !stop_words.contains(term)) {
+                terms.add(term);
             }
-        } catch (NoSuchElementException | IndexOutOfBoundsException ignored) {}
+        }
         doc.terms = terms;
     }
 
@@ -326,36 +417,36 @@ public class Parse {
      * @param token to transform into a term
      * @return the term (the token after transformation)
      */
-    private String getTerm(String token) throws IndexOutOfBoundsException {
+    private String getTerm(String token) {
         String term = "";
         if (token.contains("-") || token.toLowerCase().contains("between")) {
             term = process_range_or_expression(token);
         } else {
             if (token.contains(":")) {
-                term = process_hour(token);
+                shape.scan(token);
+                term = process_hour(shape);
             } else {
                 if (token.contains("$")) {
-                    term = process_dollars(token);
+                    shape.scan(token);
+                    term = process_dollars(token, shape);
                 } else {
                     if (months.containsKey(token.toLowerCase())) {
                         term = process_year_month(token);
-                        if (term.length() == 0) {
-                            term = process_day_month(token);
-                        }
                     } else {
                         if (Character.isDigit(token.charAt(0))) {
-                            term = process_percentage(token);
+                            shape.scan(token);
+                            term = process_percentage(token, shape);
                             if (term.length() == 0) {
-                                term = process_day_month(token);
+                                term = process_day_month(token, shape);
                             }
                             if (term.length() == 0) {
-                                term = process_dollars(token);
+                                term = process_dollars(token, shape);
                             }
                             if (term.length() == 0) {
-                                term = process_hour(token);
+                                term = process_hour(shape);
                             }
                             if (term.length() == 0) {
-                                term = process_number(token, false);
+                                term = process_number(token, shape, false);
                             }
                         }
                     }
@@ -366,15 +457,7 @@ public class Parse {
         // In case term type is not of any case from above:
         boolean upper = false;
         if (Character.isUpperCase(token.charAt(0))) upper = true;
-        if (use_stemming) {
-//            String stem = stem_collection.get(token.toLowerCase());
-//            if (stem == null){
-//                stem = stemmer.stem(token);
-//                stem_collection.put(token.toLowerCase(), stem);
-//            }
-//            token = stem;
-            token = stemmer.stem(token);
-        }
+        if (use_stemming) return stem_cache.stem(token, upper, stemmer);
         if (upper) token = token.toUpperCase();
         return token;
     }
@@ -383,155 +466,155 @@ public class Parse {
      * check whether token is of type: NUMBER
      * and if it is, return the according term.
      * @param token to process into term
+     * @param shape of token
      * @param is_dollar if process_dollar called this function
      * @return term
      */
-    private String process_number(String token, boolean is_dollar){
-        String next_token = "";
-        try {
-            if (token.contains("/")) {
-                String[] nums = token.split("/");
-                Float.parseFloat(nums[0]);
-                Float.parseFloat(nums[1]);
-                return token;
-            } else {
-                float number = Float.parseFloat(token);
-                String fraction = "";
-                try {
-                    next_token = tokens.remove().toLowerCase();
-                    // Add fraction
-                    if (next_token.contains("/")) {
-                        String[] nums = next_token.split("/");
-                        Float.parseFloat(nums[0]);
-                        Float.parseFloat(nums[1]);
-                        fraction = " " + next_token;
-                    }
-                    else if (!Character.isDigit(next_token.charAt(0))){
-                        long factor = 1L;
-                        switch (next_token) {
-                            case "hundred":
-                                factor = 100L; break;
-                            case "thousand":
-                                factor = 1000L; break;
-                            case "million":
-                                factor = 1000000L; break;
-                            case "billion":
-                                factor = 1000000000L; break;
-                            case "trillion":
-                                factor = 1000000000000L; break;
-                            default:
-                                tokens.addFirst(next_token);
-                        }
-                        number = number * factor;
-                    } else tokens.addFirst(next_token);
-                } catch (NoSuchElementException | IndexOutOfBoundsException ignored) {
-                    if (next_token.length() != 0) tokens.addFirst(next_token);
+    private String process_number(String token, TokenShape shape, boolean is_dollar){
+        if (token.contains("/")) {
+            if (shape.isFraction()) return token;
+            return "";
+        }
+        if (!shape.isNumber()) return "";
+        return process_number(shape.getValue(), is_dollar);
+    }
+
+    /**
+     * Get the term of a number, adding the fraction or the factor (thousand, million...) that may
+     * come in the next token.
+     * @param number to process into term
+     * @param is_dollar if process_dollar called this function
+     * @return term
+     */
+    private String process_number(float number, boolean is_dollar){
+        String fraction = "";
+        String next_token = tokens.peek(0);
+        if (next_token != null) {
+            next_token = next_token.toLowerCase();
+            // Add fraction
+            if (next_token.contains("/")) {
+                if (TokenShape.isFraction(next_token)) {
+                    fraction = " " + next_token;
+                    tokens.consume(1);
                 }
-                // Convert to standard form
-                String letter = "";
-                if (!is_dollar) {
-                    if (number < 1000L) {}
-                    else if (number < 1000000L) {
-                        number = number / 1000L;
-                        letter = "K";
-                    } else if (number < 1000000000L) {
-                        number = number / 1000000L;
-                        letter = "M";
-                    } else {
-                        number = number / 1000000000L;
-                        letter = "B";
-                    }
-                } else if (number >= 1000000L) {
-                    number = number / 1000000L;
-                    letter = " M";
+            }
+            else if (!Character.isDigit(next_token.charAt(0))){
+                long factor = 1L;
+                switch (next_token) {
+                    case "hundred":
+                        factor = 100L; break;
+                    case "thousand":
+                        factor = 1000L; break;
+                    case "million":
+                        factor = 1000000L; break;
+                    case "billion":
+                        factor = 1000000000L; break;
+                    case "trillion":
+                        factor = 1000000000000L; break;
                 }
-                if (number == Math.round(number)) return (int)number + letter + fraction;
-                return number + letter + fraction;
+                if (factor != 1L) tokens.consume(1);
+                number = number * factor;
             }
-        }catch (NumberFormatException | IndexOutOfBoundsException e) {
-            return "";
         }
+        // Convert to standard form
+        String letter = "";
+        if (!is_dollar) {
+            if (number < 1000L) {}
+            else if (number < 1000000L) {
+                number = number / 1000L;
+                letter = "K";
+            } else if (number < 1000000000L) {
+                number = number / 1000000L;
+                letter = "M";
+            } else {
+                number = number / 1000000000L;
+                letter = "B";
+            }
+        } else if (number >= 1000000L) {
+            number = number / 1000000L;
+            letter = " M";
+        }
+        if (number == Math.round(number)) return (int)number + letter + fraction;
+        return number + letter + fraction;
     }
 
     /**
      * check whether token is of type: PERCENTAGE
      * and if it is, return the according term.
      * @param token to process into term
+     * @param shape of token
      * @return term
      */
-    private String process_percentage(String token) {
-        try {
-            if (token.endsWith("%")) {
-                Float.parseFloat(token.substring(0, token.length() - 1));
-                return token;
-            }else {
-                Float.parseFloat(token);
-            }
-            String next_token = tokens.getFirst().toLowerCase();
-            if (next_token.equals("percent") || next_token.equals("percentage")) {
-                tokens.removeFirst();
-                return token + "%";
-            }
-            else return "";
-        }catch (NumberFormatException | NoSuchElementException | IndexOutOfBoundsException e) {
+    private String process_percentage(String token, TokenShape shape) {
+        if (token.endsWith("%")) {
+            if (shape.isPercentNumber()) return token;
             return "";
         }
+        if (!shape.isNumber()) return "";
+        String next_token = tokens.peek(0);
+        if (next_token == null) return "";
+        next_token = next_token.toLowerCase();
+        if (next_token.equals("percent") || next_token.equals("percentage")) {
+            tokens.consume(1);
+            return token + "%";
+        }
+        else return "";
     }
 
     /**
      * check whether token is of type: DOLLARS
      * and if it is, return the according term.
      * @param token to process into term
+     * @param shape of token
      * @return term
      */
-    private String process_dollars(String token) {
-        try {
-            // in case of $price
-            if (token.startsWith("$")) {
-                Float.parseFloat(token.substring(1, token.length()));
-                token = token.substring(1, token.length());
-                return process_number(token, true) + " Dollars";
-            }
-            String next_token = tokens.getFirst().toLowerCase();
-            // in case of "price dollars"
-            if (next_token.equals("dollars")) {
-                Float.parseFloat(token);
-                String stringNumber = process_number(token, true);
-                tokens.removeFirst(); // remove "Dollars"
-                return stringNumber + " Dollars";
-                // In case of "Price m/bn Dollars"
-            } else if ((next_token.equals("m") || next_token.equals("bn"))
-                    && tokens.get(1).toLowerCase().equals("dollars")) {
-                float number = Float.parseFloat(token);
-                long factor = 1000000L;
-                if (next_token.equals("bn")) factor = 1000000000L;
-                number *= factor;
-                String stringNumber = process_number(Float.toString(number), true);
-                tokens.removeFirst(); // remove "m" or "bn"
-                tokens.removeFirst(); // remove "Dollars"
-                return stringNumber + " Dollars";
-            }
-            else {
-                String next_next_token = tokens.get(1).toLowerCase();
-                // In case number has fraction and then dollar:
-                if (next_next_token.equals("dollars")) {
-                    String stringNumber = process_number(token, true);
-                    if (stringNumber.length() != 0) {
-                        tokens.removeFirst(); // remove "Dollars"
-                        return stringNumber + " Dollars";
-                    }
-                }
-                // In case number is followed by "U.S. Dollars" (the last '.' in "U.S." was previously removed):
-                String next_next_next_token = tokens.get(2).toLowerCase();
-                if (next_next_token.equals("u.s") && next_next_next_token.equals("dollars")) {
-                    String stringNumber = process_number(token, true);
-                    tokens.removeFirst();
-                    tokens.removeFirst();
+    private String process_dollars(String token, TokenShape shape) {
+        // in case of $price
+        if (token.startsWith("$")) {
+            if (!shape.isDollarNumber()) return "";
+            return process_number(shape.getValue(), true) + " Dollars";
+        }
+        String next_token = tokens.peek(0);
+        if (next_token == null) return "";
+        next_token = next_token.toLowerCase();
+        String next_next_token = tokens.peek(1);
+        if (next_next_token != null) next_next_token = next_next_token.toLowerCase();
+        // in case of "price dollars"
+        if (next_token.equals("dollars")) {
+            if (!shape.isNumber()) return "";
+            String stringNumber = process_number(shape.getValue(), true);
+            tokens.consume(1); // remove "Dollars"
+            return stringNumber + " Dollars";
+            // In case of "Price m/bn Dollars"
+        } else if ((next_token.equals("m") || next_token.equals("bn"))
+                && "dollars".equals(next_next_token)) {
+            if (!shape.isNumber()) return "";
+            float number = shape.getValue();
+            long factor = 1000000L;
+            if (next_token.equals("bn")) factor = 1000000000L;
+            number *= factor;
+            String stringNumber = process_number(number, true);
+            tokens.consume(2); // remove "m" or "bn" and "Dollars"
+            return stringNumber + " Dollars";
+        }
+        else {
+            if (next_next_token == null) return "";
+            // In case number has fraction and then dollar:
+            if (next_next_token.equals("dollars")) {
+                String stringNumber = process_number(token, shape, true);
+                if (stringNumber.length() != 0) {
+                    tokens.consume(1); // remove "Dollars"
                     return stringNumber + " Dollars";
                 }
-                return "";
             }
-        } catch(NumberFormatException | NoSuchElementException | IndexOutOfBoundsException e){
+            // In case number is followed by "U.S. Dollars" (the last '.' in "U.S." was previously removed):
+            String next_next_next_token = tokens.peek(2);
+            if (next_next_next_token == null) return "";
+            if (next_next_token.equals("u.s") && next_next_next_token.toLowerCase().equals("dollars")) {
+                String stringNumber = process_number(token, shape, true);
+                tokens.consume(2);
+                return stringNumber + " Dollars";
+            }
             return "";
         }
     }
@@ -540,33 +623,20 @@ public class Parse {
      * check whether token is of type: DAY-MONTH
      * and if it is, return the according term.
      * @param token to process into term
+     * @param shape of token
      * @return term
      */
-    private String process_day_month(String token) {
-        try {
-            token = token.toLowerCase();
-            String next_token = tokens.getFirst().toLowerCase();
-            String day;
-            String month;
-            // if month then day
-            int value = Integer.parseInt(token);
-            if (months.containsKey(token) && 1 <= value && value <= 31) {
-                month = token;
-                day = next_token;
-            }
-            // else if day then month
-            else if (months.containsKey(next_token) && 1 <= value && value <= 31) {
-                month = next_token;
-                day = token;
-            }
-            else return "";
-            terms.add(month.toUpperCase());
-            terms.add(day);
-            tokens.removeFirst();
-            return months.get(month) + "-" + add_zero(day);
-        }catch(NumberFormatException | NoSuchElementException | IndexOutOfBoundsException e) {
-            return "";
-        }
+    private String process_day_month(String token, TokenShape shape) {
+        String next_token = tokens.peek(0);
+        if (next_token == null || !shape.isInteger()) return "";
+        next_token = next_token.toLowerCase();
+        // token is the day, so next_token has to be the month
+        int value = shape.getIntValue();
+        if (!months.containsKey(next_token) || value < 1 || 31 < value) return "";
+        terms.add(next_token.toUpperCase());
+        terms.add(token);
+        tokens.consume(1);
+        return months.get(next_token) + "-" + add_zero(token);
     }
 
     /**
@@ -575,13 +645,9 @@ public class Parse {
      * @return token after adding a zero
      */
     private String add_zero(String token) {
-        try {
-            int number = Integer.parseInt(token);
-            if (number < 10) return "0" + token;
-            return token;
-        }catch (NumberFormatException e) {
-            return token;
-        }
+        if (TokenShape.isInteger(token, 0, token.length())
+                && TokenShape.parseInteger(token, 0, token.length()) < 10) return "0" + token;
+        return token;
     }
 
     /**
@@ -591,19 +657,17 @@ public class Parse {
      * @return term
      */
     private String process_year_month(String token) {
-        try {
-            String next_token = tokens.getFirst().toLowerCase();
-            if (months.containsKey(token.toLowerCase())) {
-                // next_token is year
-                Integer.parseInt(next_token);
-                terms.add(token.toUpperCase());
-                terms.add(next_token);
-                tokens.removeFirst();
-                return next_token + "-" + months.get(token.toLowerCase());
-            } else return "";
-        } catch(NumberFormatException | NoSuchElementException | IndexOutOfBoundsException e) {
-            return "";
-        }
+        String next_token = tokens.peek(0);
+        if (next_token == null) return "";
+        if (months.containsKey(token.toLowerCase())) {
+            // next_token is year
+            if (!TokenShape.isInteger(next_token, 0, next_token.length())) return "";
+            next_token = next_token.toLowerCase();
+            terms.add(token.toUpperCase());
+            terms.add(next_token);
+            tokens.consume(1);
+            return next_token + "-" + months.get(token.toLowerCase());
+        } else return "";
     }
 
     /**
@@ -613,94 +677,78 @@ public class Parse {
      * @return term
      */
     private String process_range_or_expression(String token) {
-        String next_token = "";
-        String next_next_token = "";
-        String next_next_next_token = "";
-        try {
-            if (token.contains("-")) {
-                boolean is_expression = true;
-                for (String word : token.split("-")) {
-                    if (word.length() == 0) is_expression = false;
-                    else tokens.addFirst(word);
-                }
-                if (is_expression) return token;
-                return "";
-            } else if (token.toLowerCase().equals("between")) {
-                next_token = tokens.removeFirst();
-                String firstNumber = process_number(next_token, false);
-                if (firstNumber.length() == 0) throw new NumberFormatException();
-                next_next_token = tokens.removeFirst();
-                if (!next_next_token.equals("and")) throw new NumberFormatException();
-                next_next_next_token = tokens.removeFirst();
-                String secondNumber = process_number(next_next_next_token, false);
-                if (secondNumber.length() == 0) throw new NumberFormatException();
-                String[] expression = {"between", firstNumber, "and", secondNumber};
-                return String.join(" ", expression);
+        if (token.contains("-")) {
+            boolean is_expression = true;
+            for (String word : token.split("-")) {
+                if (word.length() == 0) is_expression = false;
+                else tokens.pushFront(word);
             }
+            if (is_expression) return token;
             return "";
-        } catch (NumberFormatException | NoSuchElementException | IndexOutOfBoundsException e) {
-            // Put next terms back into tokens queue, in case token is not an expression
-            if (next_next_next_token.length() != 0) tokens.addFirst(next_next_next_token);
-            if (next_next_token.length() != 0) tokens.addFirst(next_next_token);
-            if (next_token.length() != 0) tokens.addFirst(next_token);
-            return "";
-        }
-    }
-
-    private String process_hour(String token) {
-        try {
-            token = token.toLowerCase();
-            String next_token = tokens.getFirst().toLowerCase(), hour = "";
-            boolean isAM = false, amInToken = false, pmInToken = false;
-            if (token.length() > 2) {
-                amInToken = token.substring(token.length() - 2, token.length()).equals("am");
-                pmInToken = token.substring(token.length() - 2, token.length()).equals("pm");
-            }
-            if ((token.length() > 2 && amInToken) || next_token.equals("am")) {
-                if (amInToken)
-                    token = token.substring(0, token.length() - 2);
-                isAM = true;
-            }
-            else if ((token.length() > 2 && pmInToken) || next_token.equals("pm")) {
-                if (pmInToken)
-                    token = token.substring(0, token.length() - 2);
-            }
-            else {
-                return "";
-            }
-            int hours, minutes;
-            if (token.length() > 3 && token.contains(":")) {
-                try {
-                    hours = Integer.parseInt(token.split(":")[0]);
-                    minutes = Integer.parseInt(token.split(":")[1]);
-                    if (hours <= 12 && minutes <= 60) {
-                        if (!isAM)
-                            hours = hours + 12;
-                        String min = Integer.toString(minutes);
-                        if(min.equals("0"))
-                            min += '0';
-                        String hourS = Integer.toString(hours);
-                        if(hours <10)
-                            hourS = '0' + hourS;
-                        token = hourS + ':' + min;
-                        return token;
+        } else if (token.toLowerCase().equals("between")) {
+            // in case token is not an expression, the next tokens are put back
+            int mark = tokens.mark();
+            String next_token = tokens.next();
+            if (next_token != null) {
+                lookahead.scan(next_token);
+                String firstNumber = process_number(next_token, lookahead, false);
+                if (firstNumber.length() > 0 && "and".equals(tokens.next())) {
+                    String next_next_next_token = tokens.next();
+                    if (next_next_next_token != null) {
+                        lookahead.scan(next_next_next_token);
+                        String secondNumber = process_number(next_next_next_token, lookahead, false);
+                        if (secondNumber.length() > 0) {
+                            String[] expression = {"between", firstNumber, "and", secondNumber};
+                            return String.join(" ", expression);
+                        }
                     }
-                } catch (NumberFormatException | NoSuchElementException | IndexOutOfBoundsException e) {
-                    return "";
                 }
             }
-            try {
-                hours = Integer.parseInt(token);
-                if (hours <= 12)
-                    if (!isAM)
-                        hours = hours + 12;
-                token = Integer.toString(hours) + ":00";
-                return token;
-            } catch (NumberFormatException | NoSuchElementException | IndexOutOfBoundsException e) {
-                return "";
+            tokens.reset(mark);
+        }
+        return "";
+    }
+
+    /**
+     * check whether token is of type: HOUR (like 10:30 am, 5pm)
+     * and if it is, return the according term.
+     * @param shape of token
+     * @return term
+     */
+    private String process_hour(TokenShape shape) {
+        String next_token = tokens.peek(0);
+        next_token = next_token == null ? "" : next_token.toLowerCase();
+        int suffix = shape.getSuffix();
+        boolean isAM;
+        if (suffix == TokenShape.AM || next_token.equals("am")) {
+            // "pm" in token is not an hour when the next token is "am"
+            if (suffix == TokenShape.PM) return "";
+            isAM = true;
+        }
+        else if (suffix == TokenShape.PM || next_token.equals("pm")) isAM = false;
+        else return "";
+        int hours, minutes;
+        if (shape.isTime()) {
+            hours = shape.getHours();
+            minutes = shape.getMinutes();
+            if (hours <= 12 && minutes <= 60) {
+                if (!isAM)
+                    hours = hours + 12;
+                String min = Integer.toString(minutes);
+                if(min.equals("0"))
+                    min += '0';
+                String hourS = Integer.toString(hours);
+                if(hours <10)
+                    hourS = '0' + hourS;
+                return hourS + ':' + min;
             }
-        } catch (NumberFormatException | NoSuchElementException | IndexOutOfBoundsException e) {
             return "";
         }
+        if (!shape.isHour()) return "";
+        hours = shape.getIntValue();
+        if (hours <= 12)
+            if (!isAM)
+                hours = hours + 12;
+        return Integer.toString(hours) + ":00";
     }
 }
@@ -430,7 +430,7 @@ public class PorterStemmer {
     public boolean stem(char[] wordBuffer, int offset, int wordLen) {
         this.reset();
         if (this.b.length < wordLen) {
-            this.b = new char[wordLen - offset];
+            this.b = new char[wordLen];
         }
 
         System.arraycopy(wordBuffer, offset, this.b, 0, wordLen);
@@ -438,6 +438,21 @@ public class PorterStemmer {
         return this.stem(0);
     }
 
+    /**
+     * Stems a slice of a char array into a buffer of the caller, without creating any object.
+     * A stem is never longer than its word, so dest needs room for wordLen chars.
+     * @param wordBuffer holding the word
+     * @param offset where word starts
+     * @param wordLen length of word
+     * @param dest buffer to write the stem to (from position 0). May be wordBuffer itself.
+     * @return length of stem
+     */
+    public int stem(char[] wordBuffer, int offset, int wordLen, char[] dest) {
+        this.stem(wordBuffer, offset, wordLen);
+        System.arraycopy(this.b, 0, dest, 0, this.i);
+        return this.i;
+    }
+
     public boolean stem(char[] word, int wordLen) {
         return this.stem(word, 0, wordLen);
     }
@@ -0,0 +1,186 @@
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the postings of an index (see PostingsWriter) with the text postings they replaced, in size and
+ * in decode speed. The postings of every segment are written again in the text format, a line of
+ * "docId|t/f|tf| position position...|" for every posting of a term, after a line with the term and before
+ * an empty line. Then all the postings, with their positions, are decoded from both: the binary ones
+ * through PostingsReader, and the text ones line by line, splitting the lines as a reader of the text
+ * format had to. Both must decode the same postings. The best of some rounds is printed.
+ * Exits with status 1 if they differ.
+ *
+ * Usage: PostingsBench indexPath [rounds]
+ * rounds is the number of times both formats are decoded (5 if not given).
+ */
+public class PostingsBench {
+
+    public static void main(String[] args) throws IOException {
+        String indexPath = args[0];
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        List<Segments.Segment> segments = Segments.read(indexPath).getSegments();
+
+        // write the postings of every segment in the text format
+        PostingsReader[] readers = new PostingsReader[segments.size()];
+        File[] textFiles = new File[segments.size()];
+        long binarySize = 0;
+        long textSize = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            String postingsPath = segments.get(i).getPath() + "\\postings";
+            readers[i] = new PostingsReader(postingsPath);
+            textFiles[i] = File.createTempFile("postings", ".txt");
+            textFiles[i].deleteOnExit();
+            writeText(segments.get(i).getDictionary(), readers[i], textFiles[i]);
+            binarySize += new File(postingsPath).length();
+            textSize += textFiles[i].length();
+        }
+
+        // decode both, and time them
+        double binaryTime = Double.MAX_VALUE;
+        double textTime = Double.MAX_VALUE;
+        Sum binary = null;
+        Sum text = null;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            binary = new Sum();
+            for (int i = 0; i < segments.size(); i++) decodeBinary(segments.get(i).getDictionary(), readers[i], binary);
+            binaryTime = Math.min(binaryTime, (System.nanoTime() - start) / 1e6);
+
+            start = System.nanoTime();
+            text = new Sum();
+            for (File textFile : textFiles) decodeText(textFile, text);
+            textTime = Math.min(textTime, (System.nanoTime() - start) / 1e6);
+        }
+        boolean same = binary.equals(text);
+        System.out.println(binary.postings + " postings, " + binary.positions + " positions, "
+                + (same ? "same" : "different: " + binary + " / " + text));
+        System.out.println("format         MB  bytes/posting       ms  M postings/s");
+        System.out.println(String.format("text   %10.3f %14.2f %8.1f %13.2f", textSize / 1e6,
+                (double) textSize / text.postings, textTime, text.postings / textTime / 1e3));
+        System.out.println(String.format("binary %10.3f %14.2f %8.1f %13.2f", binarySize / 1e6,
+                (double) binarySize / binary.postings, binaryTime, binary.postings / binaryTime / 1e3));
+        System.out.println(String.format("binary is %.1fx smaller and decodes %.1fx faster",
+                (double) textSize / binarySize, textTime / binaryTime));
+        if (!same) System.exit(1);
+    }
+
+    /**
+     * Writes the postings of a segment in the text format
+     * @param dictionary of segment
+     * @param reader of segment's postings
+     * @param textFile to write to
+     */
+    private static void writeText(TermDictionary dictionary, PostingsReader reader, File textFile)
+            throws IOException {
+        int[] positions = new int[16];
+        StringBuilder line = new StringBuilder();
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(textFile))) {
+            TermDictionary.Cursor terms = dictionary.open();
+            PostingsReader.Cursor postings = null;
+            while (terms.next()) {
+                out.write(terms.getTerm() + "\n");
+                if (postings == null) postings = reader.open(terms.getPosition());
+                else postings.reset(terms.getPosition());
+                while (postings.nextDoc() != -1) {
+                    int tf = postings.getTf();
+                    if (tf > positions.length) positions = new int[tf * 2];
+                    postings.readPositions(positions);
+                    line.setLength(0);
+                    line.append(postings.getDocId()).append('|').append(postings.isInTitle() ? 't' : 'f').append('|')
+                            .append(tf).append('|');
+                    for (int i = 0; i < tf; i++) line.append(' ').append(positions[i]);
+                    line.append("|\n");
+                    out.write(line.toString());
+                }
+                out.write("\n");
+            }
+        }
+    }
+
+    /**
+     * Decodes all the postings of a segment
+     * @param dictionary of segment
+     * @param reader of segment's postings
+     * @param sum to add the postings to
+     */
+    private static void decodeBinary(TermDictionary dictionary, PostingsReader reader, Sum sum) {
+        int[] positions = new int[16];
+        TermDictionary.Cursor terms = dictionary.open();
+        PostingsReader.Cursor postings = null;
+        while (terms.next()) {
+            if (postings == null) postings = reader.open(terms.getPosition());
+            else postings.reset(terms.getPosition());
+            int docId;
+            while ((docId = postings.nextDoc()) != -1) {
+                int tf = postings.getTf();
+                if (tf > positions.length) positions = new int[tf * 2];
+                postings.readPositions(positions);
+                sum.add(docId, postings.isInTitle(), tf, positions);
+            }
+        }
+    }
+
+    /**
+     * Decodes all the postings of a text postings file
+     * @param textFile to decode
+     * @param sum to add the postings to
+     */
+    private static void decodeText(File textFile, Sum sum) throws IOException {
+        int[] positions = new int[16];
+        try (BufferedReader in = new BufferedReader(new FileReader(textFile))) {
+            while (in.readLine() != null) { // the term
+                String line;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    String[] fields = line.split("\\|");
+                    int tf = Integer.parseInt(fields[2]);
+                    if (tf > positions.length) positions = new int[tf * 2];
+                    String[] positionFields = fields[3].trim().split(" ");
+                    for (int i = 0; i < tf; i++) positions[i] = Integer.parseInt(positionFields[i]);
+                    sum.add(Integer.parseInt(fields[0]), fields[1].equals("t"), tf, positions);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts of the decoded postings and a checksum of them, to check that both formats decode the same
+     */
+    private static class Sum {
+        private long postings;
+        private long positions;
+        private long checksum;
+
+        /**
+         * Adds a posting
+         * @param docId of posting
+         * @param inTitle true if term is in doc's title
+         * @param tf of term in doc
+         * @param positions of term in doc (the first tf)
+         */
+        void add(int docId, boolean inTitle, int tf, int[] positions) {
+            postings++;
+            this.positions += tf;
+            checksum = checksum * 31 + docId;
+            checksum = checksum * 31 + (inTitle ? tf * 2 + 1 : tf * 2);
+            for (int i = 0; i < tf; i++) checksum = checksum * 31 + positions[i];
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Sum)) return false;
+            Sum sum = (Sum) other;
+            return postings == sum.postings && positions == sum.positions && checksum == sum.checksum;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new long[]{postings, positions, checksum});
+        }
+
+        @Override
+        public String toString() {
+            return postings + " postings " + positions + " positions " + Long.toHexString(checksum);
+        }
+    }
+}
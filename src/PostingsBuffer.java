@@ -0,0 +1,200 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * In-memory postings of the docs indexed by a task, until they are written to a temporal posting.
+ * Every term keeps its postings in int arrays: the doc id with the flags packed in, the tf, and the
+ * positions of the term in all of its docs one after the other. So adding an occurrence of a term never creates an object.
+ * Not thread-safe: each task has its own buffer.
+ */
+public class PostingsBuffer {
+
+    /**
+     * flag of a posting whose term showed in lowercase in the doc
+     */
+    public static final int LOWERCASE = 1;
+    /**
+     * flag of a posting whose term is in the doc's title
+     */
+    public static final int IN_TITLE = 2;
+    /**
+     * bits used by the flags in an entry
+     */
+    private static final int FLAG_BITS = 2;
+
+    /**
+     * estimated bytes of a new term, besides its characters: the term's String and its char array,
+     * the map's entry and table slot, the Postings object and its two arrays
+     */
+    private static final int TERM_BYTES = 40 + 16 + 36 + 40 + 2 * (16 + 4 * 4);
+
+    /**
+     * postings of every term
+     */
+    private HashMap<String, Postings> terms = new HashMap<>();
+    /**
+     * estimated bytes used by the buffer in the heap
+     */
+    private long bytes;
+
+    /**
+     * Adds an occurrence of a term in a doc. The docs must be added in increasing order of their ids.
+     * @param term to add
+     * @param docId id of doc
+     * @param position of term in doc
+     * @param lowerCase true if term showed in lowercase
+     * @return tf of term in doc, counting this occurrence
+     */
+    public int add(String term, int docId, int position, boolean lowerCase) {
+        Postings postings = terms.get(term);
+        if (postings == null) {
+            postings = new Postings();
+            terms.put(term, postings);
+            bytes += TERM_BYTES + 2 * term.length();
+        }
+        int capacity = postings.capacity();
+        int tf = postings.add(docId, position, lowerCase);
+        bytes += 4 * (postings.capacity() - capacity);
+        return tf;
+    }
+
+    /**
+     * Marks that a term is in the title of a doc, if the term was added to that doc
+     * @param term in title
+     * @param docId id of doc
+     */
+    public void addTitleTerm(String term, int docId) {
+        Postings postings = terms.get(term);
+        if (postings != null) postings.setFlag(docId, IN_TITLE);
+    }
+
+    /**
+     * @return true if there are no terms in buffer
+     */
+    public boolean isEmpty() {
+        return terms.isEmpty();
+    }
+
+    /**
+     * @return the terms in buffer, mapped to their postings
+     */
+    public HashMap<String, Postings> getTerms() {
+        return terms;
+    }
+
+    /**
+     * @return estimated number of bytes that the buffer uses in the heap
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Removes all the terms from buffer
+     */
+    public void clear() {
+        terms = new HashMap<>();
+        bytes = 0;
+    }
+
+    /**
+     * The postings of a single term, in the order of their doc ids
+     */
+    public static class Postings {
+
+        /**
+         * two ints per posting: doc id (shifted) with flags, and tf
+         */
+        private int[] entries = new int[4];
+        /**
+         * number of postings
+         */
+        private int size;
+        /**
+         * positions of term in all the docs, one doc after the other
+         */
+        private int[] positions = new int[4];
+        /**
+         * number of positions
+         */
+        private int positionCount;
+
+        /**
+         * Adds an occurrence of the term
+         * @param docId id of doc
+         * @param position of term in doc
+         * @param lowerCase true if term showed in lowercase
+         * @return tf of term in doc
+         */
+        private int add(int docId, int position, boolean lowerCase) {
+            int last = 2 * (size - 1);
+            if (size == 0 || entries[last] >>> FLAG_BITS != docId) {
+                if (2 * size == entries.length) entries = Arrays.copyOf(entries, entries.length * 2);
+                last = 2 * size++;
+                entries[last] = docId << FLAG_BITS;
+                entries[last + 1] = 0;
+            }
+            if (lowerCase) entries[last] |= LOWERCASE;
+            if (positionCount == positions.length) positions = Arrays.copyOf(positions, positionCount * 2);
+            positions[positionCount++] = position;
+            return ++entries[last + 1];
+        }
+
+        /**
+         * @return number of ints in the arrays of postings
+         */
+        private int capacity() {
+            return entries.length + positions.length;
+        }
+
+        /**
+         * Sets a flag of the last posting, if it belongs to a doc
+         * @param docId id of doc
+         * @param flag to set
+         */
+        private void setFlag(int docId, int flag) {
+            int last = 2 * (size - 1);
+            if (size > 0 && entries[last] >>> FLAG_BITS == docId) entries[last] |= flag;
+        }
+
+        /**
+         * @return number of postings (the df of the term)
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param i index of posting
+         * @return doc id of posting
+         */
+        public int getDocId(int i) {
+            return entries[2 * i] >>> FLAG_BITS;
+        }
+
+        /**
+         * @param i index of posting
+         * @param flag to check (LOWERCASE or IN_TITLE)
+         * @return true if posting has the flag
+         */
+        public boolean hasFlag(int i, int flag) {
+            return (entries[2 * i] & flag) != 0;
+        }
+
+        /**
+         * @param i index of posting
+         * @return tf of term in the doc of posting
+         */
+        public int getTf(int i) {
+            return entries[2 * i + 1];
+        }
+
+        /**
+         * @return positions of term in all docs. Those of a posting come right after the ones of the
+         * posting before it, and there are tf of them.
+         */
+        public int[] getPositions() {
+            return positions;
+        }
+    }
+}
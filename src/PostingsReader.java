@@ -0,0 +1,380 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the postings lists of the postings of a segment, written by PostingsWriter in blocks. The file is
+ * memory-mapped, and a list is read one posting at a time through a cursor, without creating any object.
+ * A cursor can skip to a doc without reading the blocks before it: it finds the doc's block in the list's
+ * skip table, galloping from the current block and then searching the last step, so skipping far costs
+ * about the log of the distance. The doc ids and tfs of a block are decoded into arrays as far as they
+ * are needed, and never twice, so moving back to the block's postings (as Searcher does) is a scan of an
+ * array, a block that is skipped is never decoded, and positions are only read when asked for.
+ * Many cursors (of many threads) can read from the same PostingsReader.
+ *
+ * A mapped buffer can't be larger than 2 GB, so the file is mapped in windows of two chunks, each one
+ * starting a chunk after the one before (so they overlap). A cursor reads from the window that starts at
+ * the chunk of its current block, and moves to the next windows as it reads on. Since a block is always
+ * much smaller than a chunk, it's always whole in the cursor's window.
+ */
+public class PostingsReader {
+
+    /**
+     * log2 of the size of a chunk (512 MB)
+     */
+    private static final int CHUNK_SHIFT = 29;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    /**
+     * the mapped postings file: window i maps the two chunks from chunk i (or up to the end of file)
+     */
+    private final MappedByteBuffer[] windows;
+
+    /**
+     * Constructor. Maps the file into memory.
+     * @param path of postings file
+     */
+    public PostingsReader(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            windows = new MappedByteBuffer[(int) (size >>> CHUNK_SHIFT) + 1];
+            for (int i = 0; i < windows.length; i++) {
+                long start = (long) i << CHUNK_SHIFT;
+                long length = Math.min(size - start, 2L * CHUNK_SIZE);
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+    }
+
+    /**
+     * Opens a postings list
+     * @param position of list in file (as kept in the dictionary)
+     * @return cursor before the first posting of list
+     */
+    public Cursor open(long position) {
+        Cursor cursor = new Cursor();
+        cursor.reset(position);
+        return cursor;
+    }
+
+    /**
+     * Reads the postings of a list one by one. A cursor can be reused for another list with reset().
+     */
+    public class Cursor {
+
+        /**
+         * the window the cursor reads from
+         */
+        private MappedByteBuffer buffer;
+        /**
+         * position in file where buffer starts. All the positions below are in buffer, unless said otherwise.
+         */
+        private long bufferStart;
+        /**
+         * position of the next byte to read
+         */
+        private int position;
+        /**
+         * number of postings in list
+         */
+        private int df;
+        /**
+         * number of postings read
+         */
+        private int read;
+        private int docId;
+        private int tf;
+        private boolean inTitle;
+        /**
+         * number of postings of the current block
+         */
+        private int blockSize;
+        /**
+         * index in the current block of the current posting (-1 before its first posting)
+         */
+        private int blockPosting;
+        /**
+         * position where the current block ends
+         */
+        private int blockEnd;
+        /**
+         * last doc id of the block before the current one, which the doc ids of the block follow
+         */
+        private int blockBase;
+        private int blockLastDocId;
+        /**
+         * number of postings of the current block decoded into the arrays below, and position of the next one
+         */
+        private int blockDecoded;
+        private int decodePosition;
+        /**
+         * doc id, tf and title bit (tf * 2 + 1 if in title), and position of the positions of every posting
+         * of the current block
+         */
+        private final int[] blockDocIds = new int[PostingsWriter.BLOCK_SIZE];
+        private final int[] blockTfs = new int[PostingsWriter.BLOCK_SIZE];
+        private final int[] blockPositions = new int[PostingsWriter.BLOCK_SIZE];
+        /**
+         * position in file of the impacts of the current block
+         */
+        private int impactsStart;
+        /**
+         * index of the current block in list
+         */
+        private int blockIndex;
+        private int blockCount;
+        /**
+         * window that has the skip table of list (see PostingsWriter), and the position of the table in it
+         */
+        private MappedByteBuffer skipBuffer;
+        private int skipTable;
+        /**
+         * position in file (not in buffer) of the first block of list, where the positions in skip table
+         * start from
+         */
+        private long blocksStart;
+
+        /**
+         * Moves the cursor to the beginning of a list
+         * @param listPosition position of list in file
+         */
+        public void reset(long listPosition) {
+            moveTo(listPosition);
+            df = readVInt();
+            read = 0;
+            docId = 0;
+            tf = 0;
+            blockLastDocId = 0;
+            blockIndex = 0;
+            blockCount = (df + PostingsWriter.BLOCK_SIZE - 1) / PostingsWriter.BLOCK_SIZE;
+            skipBuffer = buffer;
+            skipTable = position;
+            if (blockCount > 1) position += 8 * blockCount;
+            blocksStart = bufferStart + position;
+            readBlockHeader();
+        }
+
+        /**
+         * Moves to a position in file, in the window that starts at its chunk
+         * @param filePosition position in file
+         */
+        private void moveTo(long filePosition) {
+            int window = (int) (filePosition >>> CHUNK_SHIFT);
+            buffer = windows[window];
+            bufferStart = (long) window << CHUNK_SHIFT;
+            position = (int) (filePosition - bufferStart);
+        }
+
+        /**
+         * Reads the header of the block that starts at the current position. If the block doesn't start in
+         * the first chunk of the window, moves to the next window first, so the whole block is in it.
+         */
+        private void readBlockHeader() {
+            if (position >= CHUNK_SIZE) moveTo(bufferStart + position);
+            blockBase = blockLastDocId;
+            blockLastDocId += readVInt();
+            int impactsLength = readVInt();
+            int length = readVInt();
+            impactsStart = position;
+            position += impactsLength;
+            decodePosition = position;
+            blockEnd = position + length;
+            blockSize = Math.min(PostingsWriter.BLOCK_SIZE, df - read);
+            blockPosting = -1;
+            blockDecoded = 0;
+        }
+
+        /**
+         * Decodes the doc id and tf of the next posting of the current block that wasn't decoded, and finds
+         * where its positions are
+         */
+        private void decodePosting() {
+            position = decodePosition;
+            int i = blockDecoded++;
+            blockDocIds[i] = (i == 0 ? blockBase : blockDocIds[i - 1]) + readVInt();
+            blockTfs[i] = readVInt();
+            int length = readVInt();
+            blockPositions[i] = position;
+            decodePosition = position + length;
+        }
+
+        /**
+         * Moves to a posting of the current block, that was decoded
+         * @param index of posting in block, after the current one
+         */
+        private void moveToPosting(int index) {
+            read += index - blockPosting;
+            blockPosting = index;
+            docId = blockDocIds[index];
+            tf = blockTfs[index] >>> 1;
+            inTitle = (blockTfs[index] & 1) != 0;
+        }
+
+        /**
+         * @return number of postings in list
+         */
+        public int getDf() {
+            return df;
+        }
+
+        /**
+         * Moves to the next posting
+         * @return doc id of posting, or -1 if there are no more postings
+         */
+        public int nextDoc() {
+            if (read == df) return -1;
+            if (blockPosting == blockSize - 1) {
+                position = blockEnd;
+                blockIndex++;
+                readBlockHeader();
+            }
+            if (blockPosting + 1 == blockDecoded) decodePosting();
+            moveToPosting(blockPosting + 1);
+            return docId;
+        }
+
+        /**
+         * Moves to the first posting whose doc id isn't smaller than target, skipping the blocks that
+         * end before target (see advanceBlock), and then looking for it in the doc ids of its block.
+         * If the current posting's doc id isn't smaller than target, the cursor stays on it.
+         * @param target doc id
+         * @return doc id of posting, or -1 if there are no more postings
+         */
+        public int advance(int target) {
+            if (read > 0 && docId >= target) return docId;
+            if (!advanceBlock(target)) return -1;
+            int index = blockPosting + 1; // the block's last doc id isn't smaller than target, so it's in block
+            while (true) {
+                if (index == blockDecoded) decodePosting();
+                if (blockDocIds[index] >= target) break;
+                index++;
+            }
+            moveToPosting(index);
+            return docId;
+        }
+
+        /**
+         * Moves to the block that has the first posting whose doc id isn't smaller than target, found in
+         * the skip table by galloping: the blocks 1, 2, 4, 8... after the current one are tried until one
+         * doesn't end before target, and then the block is binary searched between the last two tried.
+         * Then the block's impacts bound the score of any doc
+         * from target on in this list, until the block's last doc. Unless it stays in the
+         * block of the current posting, the cursor is left before the first posting of the block, so it
+         * must be moved with advance() or nextDoc() before reading a posting.
+         * @param target doc id
+         * @return false if there are no more postings from target on
+         */
+        public boolean advanceBlock(int target) {
+            if (blockLastDocId >= target) return true;
+            int last = blockCount - 1;
+            if (blockIndex == last || getSkipDocId(last) < target) {
+                read = df;
+                return false;
+            }
+            int low = blockIndex + 1; // the blocks before low end before target
+            int high = low; // block high doesn't end before target
+            for (int step = 1; getSkipDocId(high) < target; step *= 2) {
+                low = high + 1;
+                high = Math.min(last, high + step);
+            }
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (getSkipDocId(middle) < target) low = middle + 1;
+                else high = middle;
+            }
+
+            // move to the block, as if the blocks before it were read
+            blockIndex = low;
+            read = low * PostingsWriter.BLOCK_SIZE;
+            docId = getSkipDocId(low - 1);
+            blockLastDocId = docId;
+            moveTo(blocksStart + skipBuffer.getInt(skipTable + 8 * low + 4));
+            readBlockHeader();
+            return true;
+        }
+
+        /**
+         * @param block index of block in list
+         * @return last doc id of block, from the skip table
+         */
+        private int getSkipDocId(int block) {
+            return skipBuffer.getInt(skipTable + 8 * block);
+        }
+
+        /**
+         * @return doc id of the last posting of the current block
+         */
+        public int getBlockLastDocId() {
+            return blockLastDocId;
+        }
+
+        /**
+         * Reads the impacts of the current block (see PostingsWriter)
+         * @param tfs array to write the tf of every impact to
+         * @param lengths array to write the doc length of every impact to
+         * @return number of impacts (at most PostingsWriter.BLOCK_SIZE)
+         */
+        public int readBlockImpacts(int[] tfs, int[] lengths) {
+            int saved = position;
+            position = impactsStart;
+            int count = readVInt();
+            int tf = 0;
+            int length = 0;
+            for (int i = 0; i < count; i++) {
+                tf += readVInt();
+                length += readVInt();
+                tfs[i] = tf;
+                lengths[i] = length;
+            }
+            position = saved;
+            return count;
+        }
+
+        /**
+         * @return doc id of current posting
+         */
+        public int getDocId() {
+            return docId;
+        }
+
+        /**
+         * @return tf of current posting
+         */
+        public int getTf() {
+            return tf;
+        }
+
+        /**
+         * @return true if term is in the title of the current posting's doc
+         */
+        public boolean isInTitle() {
+            return inTitle;
+        }
+
+        /**
+         * Reads the positions of the current posting
+         * @param positions array to write the positions to. Must have room for tf positions.
+         * @return number of positions (tf)
+         */
+        public int readPositions(int[] positions) {
+            position = blockPositions[blockPosting];
+            int last = 0;
+            for (int i = 0; i < tf; i++) {
+                last += readVInt();
+                positions[i] = last;
+            }
+            return tf;
+        }
+
+        private int readVInt() {
+            byte b = buffer.get(position++);
+            int value = b & 0x7F;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = buffer.get(position++);
+                value |= (b & 0x7F) << shift;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes postings lists in the binary postings format, where every number is a variable-byte integer
+ * (7 bits per byte, the high bit set in every byte but the last one):
+ *
+ * list:    df, then df postings in increasing order of doc id
+ * posting: doc id minus the doc id of the posting before (the first one is the doc id itself),
+ *          tf shifted left by one with the title flag in the lowest bit,
+ *          number of bytes of the positions,
+ *          tf positions, each one minus the one before (the first one is the position itself)
+ *
+ * So a list can be read without creating any object, and the positions of a posting can be skipped.
+ * In temporal postings every list comes right after its term: the number of bytes of the term shifted
+ * left by one with the lowercase flag in the lowest bit, and the term in UTF-8 (see RunReader).
+ *
+ * In the postings of a segment the postings of a list are split into blocks of BLOCK_SIZE postings.
+ * A list of more than one block has a skip table after its df: the last doc id of every block and the
+ * position of the block (from the end of the table), as 4-byte integers, so a reader can find the block
+ * of a doc by galloping and binary search over the table, and jump to it. Every block starts with a header:
+ * block:   last doc id of block minus the last doc id of the block before (or 0),
+ *          number of bytes of the block's impacts, number of bytes of the block's postings,
+ *          the impacts, the postings
+ * impacts: number of impacts, then every impact: tf and length (number of terms) of a doc, each one
+ *          minus the one of the impact before (the first ones are the tf and length themselves)
+ * The impacts of a block are the (tf, length) of the postings that no other posting of the block beats
+ * with a higher tf and a shorter doc, in increasing order. A score that grows with tf and falls with
+ * length is highest in one of them, so a reader knows the best score any doc of the block can get, and
+ * can skip the whole block, without reading its postings. The max tf and min length of the whole list
+ * go to the dictionary.
+ */
+public class PostingsWriter implements Closeable {
+
+    /**
+     * postings in every block of the postings of a segment
+     */
+    public static final int BLOCK_SIZE = 128;
+
+    /**
+     * the postings file
+     */
+    private final OutputStream out;
+    private final FileOutputStream file;
+    /**
+     * number of bytes written
+     */
+    private long position;
+    /**
+     * the positions of the posting being written, until their length is known
+     */
+    private byte[] positionBytes = new byte[64];
+    /**
+     * doc id of the last posting written, to write the next one as a gap
+     */
+    private int lastDocId;
+    /**
+     * true to write the lists in blocks (postings of a segment)
+     */
+    private final boolean blocks;
+    /**
+     * the postings of the block being written, until the block is full
+     */
+    private byte[] blockBytes = new byte[1024];
+    private int blockLength;
+    /**
+     * number of postings in the block being written
+     */
+    private int blockSize;
+    /**
+     * postings of the current list that were not written yet
+     */
+    private int remaining;
+    /**
+     * last doc id of the block before the one being written
+     */
+    private int lastBlockDocId;
+    /**
+     * tf and doc length of every posting of the block being written
+     */
+    private final int[] blockTfs = new int[BLOCK_SIZE];
+    private final int[] blockLengths = new int[BLOCK_SIZE];
+    /**
+     * impacts of the block being written, sorted by tf in decreasing order (see writeBlock)
+     */
+    private final long[] impacts = new long[BLOCK_SIZE];
+    private byte[] impactBytes = new byte[64];
+    /**
+     * the blocks of the list being written, until the list is over (since its skip table goes first)
+     */
+    private byte[] listBytes = new byte[1024];
+    private int listLength;
+    /**
+     * number of blocks of the list being written
+     */
+    private int blockCount;
+    /**
+     * last doc id and position (in listBytes) of every block of the list being written
+     */
+    private int[] skipDocIds = new int[16];
+    private int[] skipPositions = new int[16];
+    private int listMaxTf;
+    private int listMinLength;
+
+    /**
+     * Constructor. Creates the file (or replaces it), to write temporal postings.
+     * @param path of postings file
+     */
+    public PostingsWriter(String path) throws IOException {
+        this(path, false);
+    }
+
+    /**
+     * Constructor. Creates the file (or replaces it).
+     * @param path of postings file
+     * @param blocks true to write the lists in blocks, as in the postings of a segment
+     */
+    public PostingsWriter(String path, boolean blocks) throws IOException {
+        file = new FileOutputStream(path);
+        out = new BufferedOutputStream(file, 1 << 16);
+        this.blocks = blocks;
+    }
+
+    /**
+     * Writes a term, before its postings list
+     * @param term to write
+     * @param lowerCase true if term showed in lowercase in any of the docs of its list
+     * @return position of term in file
+     */
+    public long writeTerm(String term, boolean lowerCase) throws IOException {
+        long start = position;
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        writeVInt(bytes.length << 1 | (lowerCase ? 1 : 0));
+        out.write(bytes);
+        position += bytes.length;
+        return start;
+    }
+
+    /**
+     * Starts a new postings list
+     * @param df number of postings that will be in list
+     * @return position of list in file, to keep in the dictionary
+     */
+    public long startList(int df) throws IOException {
+        long start = position;
+        writeVInt(df);
+        lastDocId = 0;
+        lastBlockDocId = 0;
+        remaining = df;
+        listLength = 0;
+        blockCount = 0;
+        blockLength = 0;
+        blockSize = 0;
+        listMaxTf = 0;
+        listMinLength = Integer.MAX_VALUE;
+        return start;
+    }
+
+    /**
+     * Writes a posting of the current list of temporal postings. Postings must be written in increasing
+     * order of doc id.
+     * @param docId id of doc
+     * @param inTitle true if term is in the doc's title
+     * @param tf frequency of term in doc
+     * @param positions array holding the positions of term in doc, in increasing order
+     * @param offset where the tf positions start in array
+     */
+    public void writePosting(int docId, boolean inTitle, int tf, int[] positions, int offset) throws IOException {
+        int length = putPosting(docId, inTitle, tf, positions, offset);
+        writeVInt(length);
+        out.write(positionBytes, 0, length);
+        position += length;
+    }
+
+    /**
+     * Writes a posting of the current list of the postings of a segment. Postings must be written in
+     * increasing order of doc id.
+     * @param docId id of doc
+     * @param inTitle true if term is in the doc's title
+     * @param tf frequency of term in doc
+     * @param positions array holding the positions of term in doc, in increasing order
+     * @param offset where the tf positions start in array
+     * @param docLength number of terms in doc
+     */
+    public void writePosting(int docId, boolean inTitle, int tf, int[] positions, int offset, int docLength)
+            throws IOException {
+        if (!blocks) {
+            writePosting(docId, inTitle, tf, positions, offset);
+            return;
+        }
+        int length = putPosting(docId, inTitle, tf, positions, offset);
+        ensureBlockRoom(5 + length);
+        blockLength = putVInt(blockBytes, blockLength, length);
+        System.arraycopy(positionBytes, 0, blockBytes, blockLength, length);
+        blockLength += length;
+
+        blockTfs[blockSize] = tf;
+        blockLengths[blockSize] = docLength;
+        listMaxTf = Math.max(listMaxTf, tf);
+        listMinLength = Math.min(listMinLength, docLength);
+        blockSize++;
+        remaining--;
+        if (blockSize == BLOCK_SIZE || remaining == 0) writeBlock();
+        if (remaining == 0) writeList();
+    }
+
+    /**
+     * Puts the doc id gap and tf of a posting (in the block, or in the file for temporal postings), and
+     * the positions in positionBytes
+     * @return number of bytes of the positions
+     */
+    private int putPosting(int docId, boolean inTitle, int tf, int[] positions, int offset) throws IOException {
+        if (blocks) {
+            ensureBlockRoom(10);
+            blockLength = putVInt(blockBytes, blockLength, docId - lastDocId);
+            blockLength = putVInt(blockBytes, blockLength, tf << 1 | (inTitle ? 1 : 0));
+        } else {
+            writeVInt(docId - lastDocId);
+            writeVInt(tf << 1 | (inTitle ? 1 : 0));
+        }
+        lastDocId = docId;
+
+        int length = 0;
+        int last = 0;
+        for (int i = offset; i < offset + tf; i++) {
+            if (positionBytes.length - length < 5) {
+                byte[] bigger = new byte[positionBytes.length * 2];
+                System.arraycopy(positionBytes, 0, bigger, 0, length);
+                positionBytes = bigger;
+            }
+            length = putVInt(positionBytes, length, positions[i] - last);
+            last = positions[i];
+        }
+        return length;
+    }
+
+    /**
+     * Puts the header and postings of the block being written after the blocks of the list before it
+     */
+    private void writeBlock() throws IOException {
+        // sort the postings by tf in decreasing order (then by length), and keep the ones with a shorter
+        // doc than all the ones before them
+        for (int i = 0; i < blockSize; i++) {
+            impacts[i] = (long) (Integer.MAX_VALUE - blockTfs[i]) << 32 | blockLengths[i];
+        }
+        Arrays.sort(impacts, 0, blockSize);
+        int impactCount = 0;
+        int minLength = Integer.MAX_VALUE;
+        for (int i = 0; i < blockSize; i++) {
+            int length = (int) impacts[i];
+            if (length < minLength) {
+                impacts[impactCount++] = impacts[i];
+                minLength = length;
+            }
+        }
+        int impactLength = putVInt(impactBytes, 0, impactCount);
+        int lastTf = 0;
+        int lastLength = 0;
+        for (int i = impactCount - 1; i >= 0; i--) {
+            if (impactBytes.length - impactLength < 10) impactBytes = Arrays.copyOf(impactBytes, impactBytes.length * 2);
+            int tf = Integer.MAX_VALUE - (int) (impacts[i] >>> 32);
+            int length = (int) impacts[i];
+            impactLength = putVInt(impactBytes, impactLength, tf - lastTf);
+            impactLength = putVInt(impactBytes, impactLength, length - lastLength);
+            lastTf = tf;
+            lastLength = length;
+        }
+
+        if (blockCount == skipDocIds.length) {
+            skipDocIds = Arrays.copyOf(skipDocIds, blockCount * 2);
+            skipPositions = Arrays.copyOf(skipPositions, blockCount * 2);
+        }
+        skipDocIds[blockCount] = lastDocId;
+        skipPositions[blockCount] = listLength;
+        blockCount++;
+        ensureListRoom(15 + impactLength + blockLength);
+        listLength = putVInt(listBytes, listLength, lastDocId - lastBlockDocId);
+        listLength = putVInt(listBytes, listLength, impactLength);
+        listLength = putVInt(listBytes, listLength, blockLength);
+        System.arraycopy(impactBytes, 0, listBytes, listLength, impactLength);
+        listLength += impactLength;
+        System.arraycopy(blockBytes, 0, listBytes, listLength, blockLength);
+        listLength += blockLength;
+        lastBlockDocId = lastDocId;
+        blockLength = 0;
+        blockSize = 0;
+    }
+
+    /**
+     * Writes the skip table and the blocks of the list being written
+     */
+    private void writeList() throws IOException {
+        if (blockCount > 1) {
+            for (int i = 0; i < blockCount; i++) {
+                writeInt(skipDocIds[i]);
+                writeInt(skipPositions[i]);
+            }
+        }
+        out.write(listBytes, 0, listLength);
+        position += listLength;
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+        position += 4;
+    }
+
+    private void ensureListRoom(int bytes) {
+        if (listBytes.length - listLength < bytes) {
+            listBytes = Arrays.copyOf(listBytes, Math.max(listBytes.length * 2, listLength + bytes));
+        }
+    }
+
+    private void ensureBlockRoom(int bytes) {
+        if (blockBytes.length - blockLength < bytes) {
+            blockBytes = Arrays.copyOf(blockBytes, Math.max(blockBytes.length * 2, blockLength + bytes));
+        }
+    }
+
+    /**
+     * @return max tf in the last list written (of the postings of a segment)
+     */
+    public int getMaxTf() {
+        return listMaxTf;
+    }
+
+    /**
+     * @return min length of the docs in the last list written (of the postings of a segment)
+     */
+    public int getMinLength() {
+        return listMinLength;
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    private void writeVInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            position++;
+        }
+        out.write(value);
+        position++;
+    }
+
+    /**
+     * Puts a variable-byte integer in a byte array
+     * @param bytes array
+     * @param offset where to put it
+     * @param value to put
+     * @return position after the integer
+     */
+    private static int putVInt(byte[] bytes, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Forces everything written up to now to the disk
+     */
+    public void sync() throws IOException {
+        out.flush();
+        file.getFD().sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -1,40 +1,125 @@
-
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
- * Class responsible of reading a file from corpus and returning the list of Docs in file.
+ * Class responsible of reading a file from corpus and returning the Docs in file, one at a time.
+ * The file is memory-mapped, and every doc returned is only a view of the mapped region, so
+ * the text of the file is never copied into the heap. Many ReadFiles can be used at the same time.
  */
 public class ReadFile {
 
+    private static final byte[] DOC_START = "<DOC>".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] DOC_END = "</DOC>".getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * mapped content of the file
+     */
+    private final MappedByteBuffer buffer;
+    /**
+     * size of the file
+     */
+    private final int length;
+    /**
+     * position in file from where to look for the next doc
+     */
+    private int position;
+
     /**
-     * Returns a list of the texts of all documents in file, splitting them according to the DOC tag.
+     * Constructor. Maps the file into memory.
      * @param path of file
-     * @return list of Docs
      */
-    synchronized public static ArrayList<String> read(String path) throws IOException {
-
-            ArrayList<String> docsInFile = new ArrayList<>();
-            BufferedReader reader = new BufferedReader(new FileReader(new File(path)));
-            StringBuilder stringBuilder = new StringBuilder();
-            String line = reader.readLine();
-            while (line != null) {
-                if (line.contains("<DOC>")) {
-                    stringBuilder.append(line + "\n");
-                    line = reader.readLine();
-                    while (line != null && !line.contains("</DOC>")) {
-                        stringBuilder.append(line + "\n");
-                        line = reader.readLine();
-                    }
-                    if (line != null && line.contains("</DOC>")){
-                        stringBuilder.append(line);
-                        docsInFile.add(stringBuilder.toString());
-                        stringBuilder = new StringBuilder();
-                    }
-                }
-                line = reader.readLine();
-            }
-            reader.close();
-            return docsInFile;
+    public ReadFile(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("File is too large to map: " + path);
+            this.length = (int) size;
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Returns the text of the next doc in file, splitting the docs according to the DOC tag.
+     * @return view of everything from <DOC> to </DOC> (including those tags), or null if there are no more docs
+     */
+    public CharSequence nextDoc() {
+        int start = indexOf(DOC_START, position);
+        if (start < 0) {
+            position = length;
+            return null;
+        }
+        int end = indexOf(DOC_END, start + DOC_START.length);
+        if (end < 0) {
+            position = length;
+            return null;
+        }
+        end += DOC_END.length;
+        position = end;
+        return new DocText(buffer, start, end - start);
+    }
+
+    /**
+     * Finds the first occurrence of pattern in the mapped file, starting from position from.
+     * @param pattern to look for
+     * @param from position to start looking from
+     * @return position of pattern, or -1 if not found
+     */
+    private int indexOf(byte[] pattern, int from) {
+        int last = length - pattern.length;
+        byte first = pattern[0];
+        for (int i = from; i <= last; i++) {
+            if (buffer.get(i) != first) continue;
+            int j = 1;
+            while (j < pattern.length && buffer.get(i + j) == pattern[j]) j++;
+            if (j == pattern.length) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * The text of a single doc, read lazily from the mapped file. Every byte is a char (ISO-8859-1).
+     */
+    public static class DocText implements CharSequence {
+
+        private final MappedByteBuffer buffer;
+        private final int offset;
+        private final int length;
+
+        /**
+         * Constructor
+         * @param buffer mapped file
+         * @param offset of text in file
+         * @param length of text
+         */
+        DocText(MappedByteBuffer buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(offset + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new DocText(buffer, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) bytes[i] = buffer.get(offset + i);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
     }
-}
\ No newline at end of file
+}
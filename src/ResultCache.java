@@ -0,0 +1,437 @@
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Keeps the results of the queries asked most often, in front of a Searcher. A query is kept by its terms
+ * as parsed (see Searcher.normalize), its language and city filters and the number of docs asked for, so
+ * queries written differently that are searched the same way share their results.
+ *
+ * Which results are kept is decided by how often their query is asked (W-TinyLFU): a small window keeps
+ * the newest results, in order of use, and the rest of the memory (the main part) keeps the results that
+ * were asked more often than the ones they replaced. How often a query was asked is estimated with a
+ * count-min sketch: 4 counters of 4 bits per query, in a table shared by all queries (so it's counted even
+ * when its results are not kept), halved every time there were 10 times as many queries as results kept,
+ * so the counts follow the queries of late. When the window is full, its oldest results are admitted into
+ * the main part only if their query was asked more often than the query of the results they would
+ * replace; else they are dropped. So a burst of queries asked once doesn't flush the frequent ones. The
+ * main part is split into probation, where admitted results go, and protected, where results go when
+ * they are asked again, and where they can only be replaced after falling back to probation (SLRU).
+ *
+ * The memory of the results is estimated, and the whole cache is kept within a bound. Before every query
+ * the version of the segments file is checked, and if the index changed, a new searcher is opened and
+ * all the results are dropped.
+ *
+ * Many threads can search through the same cache.
+ */
+public class ResultCache {
+
+    /**
+     * part of the memory for the window
+     */
+    private static final double WINDOW = 0.01;
+    /**
+     * part of the memory of the main part for protected
+     */
+    private static final double PROTECTED = 0.8;
+    /**
+     * estimated bytes of a kept query, besides its key and results
+     */
+    private static final int ENTRY_BYTES = 160;
+    /**
+     * estimated bytes of a result, besides its DOCNO
+     */
+    private static final int RESULT_BYTES = 72;
+    /**
+     * estimated bytes of the results of a query, to size the sketch
+     */
+    private static final int AVERAGE_BYTES = 1024;
+
+    private final String indexPath;
+    private final String stopWordsPath;
+    private final boolean useStemming;
+    /**
+     * searcher of the current version of the index
+     */
+    private volatile Searcher searcher;
+
+    /**
+     * the results kept in every part, in order of use (the least recently used first)
+     */
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * estimated bytes of every part, and their bounds
+     */
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+    private final long maxBytes;
+    private final long maxWindowBytes;
+    private final long maxProtectedBytes;
+
+    private final FrequencySketch sketch;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+    private long invalidations;
+    /**
+     * total time of the queries whose results were kept, and of the ones that were searched, in nanoseconds
+     */
+    private long hitTime;
+    private long missTime;
+
+    /**
+     * Constructor. Opens a searcher of the index.
+     * @param indexPath path of index directory
+     * @param stopWordsPath path of the stop-words file the index was created with
+     * @param useStemming true if the index was created with stemming
+     * @param maxBytes bound of the (estimated) memory of the results kept
+     */
+    public ResultCache(String indexPath, String stopWordsPath, boolean useStemming, long maxBytes) throws IOException {
+        this.indexPath = indexPath;
+        this.stopWordsPath = stopWordsPath;
+        this.useStemming = useStemming;
+        this.maxBytes = maxBytes;
+        this.maxWindowBytes = Math.max(1, (long) (maxBytes * WINDOW));
+        this.maxProtectedBytes = (long) ((maxBytes - maxWindowBytes) * PROTECTED);
+        this.sketch = new FrequencySketch((int) Math.min(1 << 24, Math.max(16, maxBytes / AVERAGE_BYTES)));
+        this.searcher = new Searcher(indexPath, stopWordsPath, useStemming);
+    }
+
+    /**
+     * Finds the docs in some languages and cities that best match a query, keeping the results
+     * @param query text of query
+     * @param languages the docs must be in one of these languages (null or empty for any language)
+     * @param cities the docs must have one of these cities (null or empty for any city)
+     * @param k max number of docs to return
+     * @return the (at most) k docs with the highest BM25 score, from highest to lowest (see Searcher.search).
+     * The list can't be changed.
+     */
+    public List<Searcher.Result> search(String query, Set<String> languages, Set<String> cities, int k)
+            throws IOException {
+        long start = System.nanoTime();
+        Searcher searcher = getSearcher();
+        String key = searcher.normalize(query) + "|" + getKey(languages) + "|" + getKey(cities) + "|" + k;
+
+        List<Searcher.Result> results = get(key);
+        if (results != null) {
+            synchronized (this) {
+                hitTime += System.nanoTime() - start;
+            }
+            return results;
+        }
+        results = Collections.unmodifiableList(searcher.search(query, languages, cities, k));
+        synchronized (this) {
+            // the index may have changed while searching, and then the results are of the old one
+            if (searcher == this.searcher) put(key, results);
+            missTime += System.nanoTime() - start;
+        }
+        return results;
+    }
+
+    /**
+     * @param filter set of languages or cities
+     * @return the filter in a key: its values in order, separated by commas
+     */
+    private static String getKey(Set<String> filter) {
+        return filter == null ? "" : String.join(",", new TreeSet<>(filter));
+    }
+
+    /**
+     * @return searcher of the current version of the index. If the index changed, the results are dropped.
+     */
+    private Searcher getSearcher() throws IOException {
+        long version = Segments.readVersion(indexPath);
+        Searcher searcher = this.searcher;
+        if (version == searcher.getVersion()) return searcher;
+        synchronized (this) {
+            if (version != this.searcher.getVersion()) {
+                this.searcher = new Searcher(indexPath, stopWordsPath, useStemming);
+                clear();
+                invalidations++;
+            }
+            return this.searcher;
+        }
+    }
+
+    /**
+     * Drops all the results kept
+     */
+    public synchronized void clear() {
+        window.clear();
+        probation.clear();
+        protectedEntries.clear();
+        windowBytes = 0;
+        probationBytes = 0;
+        protectedBytes = 0;
+    }
+
+    /**
+     * Counts a query in the sketch, and gets its results if they are kept
+     * @param key of query
+     * @return results of query, or null if they are not kept
+     */
+    private synchronized List<Searcher.Result> get(String key) {
+        sketch.increment(key);
+        Entry entry = window.get(key);
+        if (entry == null) entry = protectedEntries.get(key);
+        if (entry == null) {
+            entry = probation.remove(key);
+            if (entry != null) {
+                // asked again: protected
+                probationBytes -= entry.bytes;
+                protectedEntries.put(key, entry);
+                protectedBytes += entry.bytes;
+                while (protectedBytes > maxProtectedBytes) {
+                    Entry demoted = removeEldest(protectedEntries);
+                    protectedBytes -= demoted.bytes;
+                    probation.put(demoted.key, demoted);
+                    probationBytes += demoted.bytes;
+                }
+            }
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.results;
+    }
+
+    /**
+     * Keeps the results of a query in the window, and moves the oldest results of the window to the main
+     * part (or drops them) while the window takes more than its bound
+     * @param key of query
+     * @param results of query
+     */
+    private void put(String key, List<Searcher.Result> results) {
+        if (window.containsKey(key) || probation.containsKey(key) || protectedEntries.containsKey(key)) return;
+        Entry entry = new Entry(key, results);
+        if (entry.bytes > maxBytes - maxWindowBytes) {
+            rejections++;
+            return;
+        }
+        window.put(key, entry);
+        windowBytes += entry.bytes;
+        while (windowBytes > maxWindowBytes) {
+            Entry candidate = removeEldest(window);
+            windowBytes -= candidate.bytes;
+            admit(candidate);
+        }
+    }
+
+    /**
+     * Moves results from the window to probation if there's room for them, or if their query was asked
+     * more often than the queries of the results they replace
+     * @param candidate results that left the window
+     */
+    private void admit(Entry candidate) {
+        int frequency = sketch.frequency(candidate.key);
+        while (probationBytes + protectedBytes + candidate.bytes > maxBytes - maxWindowBytes) {
+            LinkedHashMap<String, Entry> victims = probation.isEmpty() ? protectedEntries : probation;
+            Entry victim = victims.values().iterator().next();
+            if (frequency <= sketch.frequency(victim.key)) {
+                rejections++;
+                return;
+            }
+            victims.remove(victim.key);
+            if (victims == probation) probationBytes -= victim.bytes;
+            else protectedBytes -= victim.bytes;
+            evictions++;
+        }
+        probation.put(candidate.key, candidate);
+        probationBytes += candidate.bytes;
+    }
+
+    /**
+     * @param entries part of cache, not empty
+     * @return the least recently used results of part, which are removed from it
+     */
+    private static Entry removeEldest(LinkedHashMap<String, Entry> entries) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        Entry eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+
+    /**
+     * @return number of queries whose results were kept
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return number of queries whose results were not kept, so they were searched
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return part of the queries whose results were kept, or 0 if there were no queries
+     */
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * @return number of results that were dropped from the main part to make room for others
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return number of results that were not let into the main part, since their query was asked less often
+     * than the ones kept (or they were too big)
+     */
+    public synchronized long getRejectionCount() {
+        return rejections;
+    }
+
+    /**
+     * @return number of times all the results were dropped since the index changed
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    /**
+     * @return average time of the queries whose results were kept, in milliseconds
+     */
+    public synchronized double getAverageHitTime() {
+        return hits == 0 ? 0 : hitTime / 1e6 / hits;
+    }
+
+    /**
+     * @return average time of the queries that were searched, in milliseconds
+     */
+    public synchronized double getAverageMissTime() {
+        return misses == 0 ? 0 : missTime / 1e6 / misses;
+    }
+
+    /**
+     * @return number of queries whose results are kept
+     */
+    public synchronized int size() {
+        return window.size() + probation.size() + protectedEntries.size();
+    }
+
+    /**
+     * @return estimated bytes of the results kept
+     */
+    public synchronized long getBytes() {
+        return windowBytes + probationBytes + protectedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("results of %d queries (%d bytes), hit rate %.3f (%d hits, %d misses), "
+                        + "%d evictions, %d rejections, %d invalidations, hit time %.3f ms, miss time %.3f ms",
+                size(), getBytes(), getHitRate(), hits, misses, evictions, rejections, invalidations,
+                getAverageHitTime(), getAverageMissTime());
+    }
+
+    /**
+     * The results of a query
+     */
+    private static class Entry {
+        private final String key;
+        private final List<Searcher.Result> results;
+        /**
+         * estimated memory of key and results
+         */
+        private final long bytes;
+
+        Entry(String key, List<Searcher.Result> results) {
+            this.key = key;
+            this.results = results;
+            long bytes = ENTRY_BYTES + 2L * key.length();
+            for (Searcher.Result result : results) bytes += RESULT_BYTES + result.getDocNo().length();
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Estimates how often every query was asked of late (a count-min sketch). Every query has a counter of
+     * 4 bits in each of 4 rows of the table, chosen by a different hash in every row, and its frequency is
+     * the smallest of its counters, since other queries can only add to them. 16 counters fit in a long.
+     */
+    private static class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        /**
+         * number of counters in table minus 1 (number of counters is a power of 2)
+         */
+        private final int mask;
+        /**
+         * number of counts after which all the counters are halved
+         */
+        private final int sampleSize;
+        private int size;
+
+        /**
+         * Constructor
+         * @param expectedEntries about how many queries have their results kept
+         */
+        FrequencySketch(int expectedEntries) {
+            int longs = Integer.highestOneBit(Math.max(1, expectedEntries / 4) - 1) << 1;
+            table = new long[Math.max(4, longs)];
+            mask = table.length * 16 - 1;
+            sampleSize = 10 * expectedEntries;
+        }
+
+        /**
+         * Counts a query
+         * @param key of query
+         */
+        void increment(String key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int counter = getCounter(hash, row);
+                int index = counter >>> 4;
+                int shift = (counter & 15) << 2;
+                if (((table[index] >>> shift) & 15) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++size == sampleSize) {
+                for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & RESET_MASK;
+                size /= 2;
+            }
+        }
+
+        /**
+         * @param key of query
+         * @return estimated times query was asked of late (at most 15)
+         */
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = 15;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int counter = getCounter(hash, row);
+                frequency = Math.min(frequency, (int) (table[counter >>> 4] >>> ((counter & 15) << 2)) & 15);
+            }
+            return frequency;
+        }
+
+        /**
+         * @param hash of query
+         * @param row of table
+         * @return index of the query's counter in row (of all the counters in table)
+         */
+        private int getCounter(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+    }
+}
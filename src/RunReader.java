@@ -0,0 +1,181 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a temporal posting (a run) written by PostingsWriter: terms in sorted order, each one followed by
+ * its postings list. The file is read as a stream, from any term on, so the merger can read many runs at
+ * once with little memory (and the runs are not mapped, so they can be deleted right after the merge).
+ */
+public class RunReader implements Closeable {
+
+    private final InputStream in;
+    /**
+     * number of postings in the current list
+     */
+    private int df;
+    /**
+     * number of postings read from the current list
+     */
+    private int read;
+    private int docId;
+    private int tf;
+    private boolean inTitle;
+    /**
+     * true if the current term showed in lowercase in any doc of the run
+     */
+    private boolean lowerCase;
+    /**
+     * bytes of the positions of the current posting that were not read
+     */
+    private int positionsLeft;
+    private byte[] termBytes = new byte[64];
+    /**
+     * position in file of the next byte to read
+     */
+    private long position;
+    /**
+     * position in file of the current term
+     */
+    private long termPosition;
+
+    /**
+     * Constructor
+     * @param path of run
+     * @param position of the term from where to start reading
+     */
+    public RunReader(String path, long position) throws IOException {
+        FileInputStream file = new FileInputStream(path);
+        file.getChannel().position(position);
+        in = new BufferedInputStream(file, 1 << 16);
+        this.position = position;
+    }
+
+    /**
+     * Moves to the next term, skipping whatever wasn't read from the current list
+     * @return the term, or null if there are no more terms
+     */
+    public String nextTerm() throws IOException {
+        while (nextDoc() >= 0) {}
+        skip(positionsLeft);
+        positionsLeft = 0;
+        termPosition = position;
+        int first = in.read();
+        if (first < 0) return null;
+        position++;
+        int lengthAndCase = readVInt(first);
+        int length = lengthAndCase >>> 1;
+        lowerCase = (lengthAndCase & 1) != 0;
+        if (termBytes.length < length) termBytes = new byte[length];
+        for (int i = 0; i < length; ) {
+            int n = in.read(termBytes, i, length - i);
+            if (n < 0) throw new EOFException();
+            i += n;
+            position += n;
+        }
+        df = readVInt(read());
+        read = 0;
+        docId = 0;
+        return new String(termBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return position in file of the current term, from where a RunReader can start reading
+     */
+    public long getTermPosition() {
+        return termPosition;
+    }
+
+    /**
+     * @return true if the current term showed in lowercase in any doc of the run
+     */
+    public boolean isLowerCase() {
+        return lowerCase;
+    }
+
+    /**
+     * @return number of postings in the current list
+     */
+    public int getDf() {
+        return df;
+    }
+
+    /**
+     * Moves to the next posting of the current list
+     * @return doc id of posting, or -1 if there are no more postings in list
+     */
+    public int nextDoc() throws IOException {
+        if (read == df) return -1;
+        skip(positionsLeft);
+        read++;
+        docId += readVInt(read());
+        int tfAndTitle = readVInt(read());
+        tf = tfAndTitle >>> 1;
+        inTitle = (tfAndTitle & 1) != 0;
+        positionsLeft = readVInt(read());
+        return docId;
+    }
+
+    /**
+     * @return tf of current posting
+     */
+    public int getTf() {
+        return tf;
+    }
+
+    /**
+     * @return true if term is in the title of the current posting's doc
+     */
+    public boolean isInTitle() {
+        return inTitle;
+    }
+
+    /**
+     * Reads the positions of the current posting
+     * @param positions array to write the positions to
+     * @param offset where to write them
+     * @return number of positions (tf)
+     */
+    public int readPositions(int[] positions, int offset) throws IOException {
+        int last = 0;
+        for (int i = 0; i < tf; i++) {
+            last += readVInt(read());
+            positions[offset + i] = last;
+        }
+        positionsLeft = 0;
+        return tf;
+    }
+
+    private int read() throws IOException {
+        int b = in.read();
+        if (b < 0) throw new EOFException();
+        position++;
+        return b;
+    }
+
+    private int readVInt(int b) throws IOException {
+        int value = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = read();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    private void skip(int bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                read();
+                skipped = 1;
+            } else {
+                position += skipped;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
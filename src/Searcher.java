@@ -0,0 +1,755 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers queries over an index. A query is parsed with the same Parse rules the docs were parsed with,
+ * and the docs are ranked by BM25, using the lengths (number of terms) kept in the documents file.
+ * Every term of the query is looked up in the dictionary of every segment, which gives the position of
+ * its postings list, so a list is read from where it starts (one seek per term and segment) and no file
+ * is scanned. The lists of the query's terms are read together, doc by doc, and only the best k docs
+ * are kept, in a heap of size k.
+ *
+ * Most docs can't get into the best k, so they are skipped without being scored (Block-Max WAND): the
+ * dictionary keeps the max tf of every term and the min length of its docs, which bound the score of the
+ * term in any doc of its list, and every block of postings keeps its impacts (see PostingsWriter), which
+ * bound the score of the term in any doc of the block.
+ * The lists are kept in order of their current doc, and the first doc that may get into the best k is
+ * the doc of the first list where the bounds of the lists up to it add to more than the worst score kept
+ * (the pivot). If the bounds of their blocks don't add to more either, all the docs up to the end of the
+ * first of these blocks are skipped, a block at a time. So frequent terms cost little once the heap is
+ * full, and the results are the same as scoring every doc. The docs can be restricted to some languages
+ * and cities: the docs of other ones are passed over when they would be scored.
+ *
+ * A query can also ask for only the docs that have all its terms (searchAll). Then the lists of a segment
+ * are intersected from the shortest one: every doc of a list is looked for in the next lists, which skip
+ * to it by their skip tables (see PostingsReader), so a rare term with a frequent one costs about the
+ * length of the rare term's list, and not of the frequent one's.
+ *
+ * A query can also be a phrase (searchPhrase), whose terms must be in a doc one right after the other,
+ * or a set of terms that must be in a doc within a distance of each other, in any order (searchNear).
+ * The positions of a term are the number of terms before it in the doc, as parsed (without stop words),
+ * and the query is parsed the same way, so "between 10 and 20" matches the terms the docs got for it. The
+ * docs with all the terms are found by intersecting the lists, and only the positions of these docs are
+ * read. The number of times the phrase (or the terms within the distance) is in a doc adds to its score,
+ * as a term of its own, with the lowest weight of the terms (the one of the most frequent).
+ *
+ * A searcher sees the segments that were in the index when it was created. Many threads can search
+ * with the same searcher.
+ */
+public class Searcher {
+
+    /**
+     * BM25 parameter: how fast the score of a term saturates as its frequency in the doc grows
+     */
+    private static final double K1 = 1.2;
+    /**
+     * BM25 parameter: how much the score of a term is normalized by the length of the doc
+     */
+    private static final double B = 0.75;
+
+    /**
+     * segments of index
+     */
+    private final List<Segments.Segment> segments;
+    /**
+     * postings of every segment
+     */
+    private final PostingsReader[] postings;
+    /**
+     * documents of every segment
+     */
+    private final DocumentStore[] documents;
+    /**
+     * number of docs in index
+     */
+    private final int documentCount;
+    /**
+     * average number of terms in a doc
+     */
+    private final double averageLength;
+    /**
+     * version of the segments file (see Segments)
+     */
+    private final long version;
+
+    private final CharArraySet stopWords;
+    private final HashMap months;
+    private final boolean[] stopSuffixes;
+    private final boolean[] stopPrefixes;
+    private final StemCache stemCache = new StemCache(1 << 12);
+    private final boolean useStemming;
+
+    /**
+     * Constructor. Maps the postings and documents of every segment of the index.
+     * @param indexPath path of index directory
+     * @param stopWordsPath path of the stop-words file the index was created with
+     * @param useStemming true if the index was created with stemming
+     */
+    public Searcher(String indexPath, String stopWordsPath, boolean useStemming) throws IOException {
+        Segments index = Segments.read(indexPath);
+        this.segments = index.getSegments();
+        this.version = index.getVersion();
+        this.stopWords = Indexer.getStopWords(stopWordsPath);
+        this.months = Indexer.getMonths();
+        this.stopSuffixes = Indexer.getStopSuffixes();
+        this.stopPrefixes = Indexer.getStopPrefixes();
+        this.useStemming = useStemming;
+
+        postings = new PostingsReader[segments.size()];
+        documents = new DocumentStore[segments.size()];
+        int documentCount = 0;
+        long totalLength = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            postings[i] = new PostingsReader(segments.get(i).getPath() + "\\postings");
+            documents[i] = new DocumentStore(segments.get(i).getPath());
+            for (int id = 0; id < documents[i].size(); id++) totalLength += documents[i].getTermCount(id);
+            documentCount += documents[i].size();
+        }
+        this.documentCount = documentCount;
+        this.averageLength = documentCount == 0 ? 0 : (double) totalLength / documentCount;
+    }
+
+    /**
+     * @return number of docs in index
+     */
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * @return the version of the segments file this searcher sees (see Segments)
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Finds the docs that best match a query
+     * @param query text of query
+     * @param k max number of docs to return
+     * @return the (at most) k docs with the highest BM25 score, from highest to lowest
+     */
+    public List<Result> search(String query, int k) throws IOException {
+        return search(query, null, null, k);
+    }
+
+    /**
+     * Finds the docs in some languages and cities that best match a query
+     * @param query text of query
+     * @param languages the docs must be in one of these languages (null or empty for any language)
+     * @param cities the docs must have one of these cities (null or empty for any city)
+     * @param k max number of docs to return
+     * @return the (at most) k docs with the highest BM25 score, from highest to lowest
+     */
+    public List<Result> search(String query, Set<String> languages, Set<String> cities, int k) throws IOException {
+        return search(query, languages, cities, k, true);
+    }
+
+    /**
+     * Finds the docs in some languages and cities that best match a query, skipping the docs that can't
+     * get into the best k or scoring every doc (see TopKCheck)
+     * @param query text of query
+     * @param languages the docs must be in one of these languages (null or empty for any language)
+     * @param cities the docs must have one of these cities (null or empty for any city)
+     * @param k max number of docs to return
+     * @param prune true to skip the docs that can't get into the best k, false to score every doc
+     * @return the (at most) k docs with the highest BM25 score, from highest to lowest
+     */
+    List<Result> search(String query, Set<String> languages, Set<String> cities, int k, boolean prune)
+            throws IOException {
+        List<QueryTerm> terms = getTerms(query);
+        terms.removeIf(term -> term.df == 0);
+        if (k <= 0 || terms.isEmpty()) return new ArrayList<>();
+        if (languages != null && languages.isEmpty()) languages = null;
+        if (cities != null && cities.isEmpty()) cities = null;
+        PriorityQueue<Result> top = new PriorityQueue<>(k);
+        for (int i = 0; i < segments.size(); i++) searchSegment(i, terms, languages, cities, k, prune, top);
+        return getResults(top);
+    }
+
+    /**
+     * @param query text of query
+     * @return the terms of query as they are looked up in the dictionary, in order and separated by spaces.
+     * Queries with the same terms get the same docs.
+     */
+    public String normalize(String query) {
+        TokenBuffer parsed = parse(query);
+        StringBuilder normalized = new StringBuilder();
+        for (int i = 0; i < parsed.size(); i++) {
+            if (i > 0) normalized.append(' ');
+            normalized.append(Segments.getKey(parsed.get(i)));
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Finds the docs that have all the terms of a query and best match it
+     * @param query text of query
+     * @param k max number of docs to return
+     * @return the (at most) k docs with all the terms of query with the highest BM25 score, from highest
+     * to lowest
+     */
+    public List<Result> searchAll(String query, int k) throws IOException {
+        List<QueryTerm> terms = getTerms(query);
+        if (k <= 0 || terms.isEmpty()) return new ArrayList<>();
+        for (QueryTerm term : terms) if (term.df == 0) return new ArrayList<>();
+        PriorityQueue<Result> top = new PriorityQueue<>(k);
+        for (int i = 0; i < segments.size(); i++) searchSegmentAll(i, terms, k, top);
+        return getResults(top);
+    }
+
+    /**
+     * Finds the docs that have a phrase and best match it
+     * @param phrase text of phrase
+     * @param k max number of docs to return
+     * @return the (at most) k docs with phrase with the highest score (BM25 plus the times the phrase is in
+     * the doc), from highest to lowest
+     */
+    public List<Result> searchPhrase(String phrase, int k) throws IOException {
+        List<QueryTerm> sequence = new ArrayList<>();
+        List<QueryTerm> terms = getTerms(phrase, sequence);
+        int[] phraseTerms = new int[sequence.size()];
+        for (int i = 0; i < phraseTerms.length; i++) phraseTerms[i] = terms.indexOf(sequence.get(i));
+        return searchPositions(terms, phraseTerms, 0, k);
+    }
+
+    /**
+     * Finds the docs that have all the terms of a query within a distance of each other (NEAR/distance)
+     * and best match it
+     * @param query text of query
+     * @param distance max number of positions between the first and the last of the terms, in any order
+     * @param k max number of docs to return
+     * @return the (at most) k docs with the terms within distance with the highest score (BM25 plus the
+     * times the terms are within distance in the doc), from highest to lowest
+     */
+    public List<Result> searchNear(String query, int distance, int k) throws IOException {
+        return searchPositions(getTerms(query), null, distance, k);
+    }
+
+    /**
+     * Finds the docs that have a phrase, or terms within a distance of each other
+     * @param terms of query
+     * @param phrase term of every token of phrase, or null to find the terms within distance
+     * @param distance max number of positions between the first and the last of the terms
+     * @param k max number of docs to return
+     * @return the (at most) k best docs, from highest to lowest
+     */
+    private List<Result> searchPositions(List<QueryTerm> terms, int[] phrase, int distance, int k) {
+        if (k <= 0 || terms.isEmpty()) return new ArrayList<>();
+        for (QueryTerm term : terms) if (term.df == 0) return new ArrayList<>();
+        PriorityQueue<Result> top = new PriorityQueue<>(k);
+        for (int i = 0; i < segments.size(); i++) searchSegmentPositions(i, terms, phrase, distance, k, top);
+        return getResults(top);
+    }
+
+    /**
+     * @param top heap of the best docs found
+     * @return the docs in top, from highest to lowest, with their DOCNO
+     */
+    private List<Result> getResults(PriorityQueue<Result> top) {
+        List<Result> results = new ArrayList<>(top);
+        results.sort(Collections.reverseOrder());
+        for (Result result : results) result.docNo = documents[result.segment].getDocNo(result.docId);
+        return results;
+    }
+
+    /**
+     * Parses a query into its terms, and finds the weight (IDF) of every term in the whole index
+     * @param query text of query
+     * @return the distinct terms of query, in order (a term that isn't in index has df 0)
+     */
+    private List<QueryTerm> getTerms(String query) throws IOException {
+        return getTerms(query, null);
+    }
+
+    /**
+     * Parses a query into its terms, and finds the weight (IDF) of every term in the whole index
+     * @param query text of query
+     * @param sequence list to add the term of every token of query to, in order (null if not needed)
+     * @return the distinct terms of query, in order (a term that isn't in index has df 0)
+     */
+    private List<QueryTerm> getTerms(String query, List<QueryTerm> sequence) throws IOException {
+        TokenBuffer parsed = parse(query);
+
+        LinkedHashMap<String, QueryTerm> terms = new LinkedHashMap<>();
+        for (int i = 0; i < parsed.size(); i++) {
+            String key = Segments.getKey(parsed.get(i));
+            QueryTerm term = terms.get(key);
+            if (term == null) {
+                term = new QueryTerm(segments.size());
+                for (int j = 0; j < segments.size(); j++) {
+                    long[] termData = segments.get(j).getDictionary().get(key);
+                    if (termData == null) continue;
+                    term.df += termData[0];
+                    term.dfs[j] = (int) termData[0];
+                    term.positions[j] = termData[2];
+                    term.maxTfs[j] = (int) termData[3];
+                    term.minLengths[j] = (int) termData[4];
+                }
+                terms.put(key, term);
+            }
+            term.count++;
+            if (sequence != null) sequence.add(term);
+        }
+
+        for (QueryTerm term : terms.values()) {
+            term.weight = term.count * Math.log(1 + (documentCount - term.df + 0.5) / (term.df + 0.5));
+        }
+        return new ArrayList<>(terms.values());
+    }
+
+    /**
+     * Parses a query with the rules the docs were parsed with
+     * @param query text of query
+     * @return the terms of query
+     */
+    private TokenBuffer parse(String query) {
+        // the cities dictionary is only used for the city tag, which a query doesn't have
+        Parse parser = new Parse(stopWords, new HashMap<>(), new ConcurrentHashMap<>(), months,
+                stemCache, stopSuffixes, stopPrefixes, useStemming);
+        return parser.getParsedDoc("<DOC>\n<DOCNO></DOCNO>\n<TEXT>\n" + query + "\n</TEXT>\n</DOC>").terms;
+    }
+
+    /**
+     * Scores the docs of a segment that may get into the best docs, and keeps the best in top
+     * (see Block-Max WAND above)
+     * @param segment index of segment
+     * @param terms of query
+     * @param languages the docs must be in one of these languages (null for any language)
+     * @param cities the docs must have one of these cities (null for any city)
+     * @param k max number of docs to keep
+     * @param prune true to skip the docs that can't get into top, false to score every doc
+     * @param top heap of the best docs found so far, with the worst on top
+     */
+    private void searchSegment(int segment, List<QueryTerm> terms, Set<String> languages, Set<String> cities, int k,
+                               boolean prune, PriorityQueue<Result> top) {
+        // open the list of every term in segment, and move to its first doc
+        TermCursor[] cursors = new TermCursor[terms.size()];
+        double[] termScores = new double[terms.size()]; // score of every term in the doc being scored
+        int count = 0;
+        for (int i = 0; i < terms.size(); i++) {
+            QueryTerm term = terms.get(i);
+            if (term.positions[segment] < 0) continue;
+            TermCursor cursor = new TermCursor(i, postings[segment].open(term.positions[segment]), term.weight,
+                    score(term.weight, term.maxTfs[segment], term.minLengths[segment]));
+            cursor.doc = cursor.postings.nextDoc();
+            cursors[count++] = cursor;
+        }
+
+        DocumentStore store = documents[segment];
+        while ((count = sort(cursors, count)) > 0) {
+            double threshold = !prune || top.size() < k ? Double.NEGATIVE_INFINITY : top.peek().score;
+
+            // find the pivot: a doc before it can't get into top, since only the lists before it have it
+            int pivot = -1;
+            double bound = 0;
+            for (int i = 0; i < count && pivot < 0; i++) {
+                bound += cursors[i].maxScore;
+                if (bound > threshold) pivot = i;
+            }
+            if (pivot < 0) return;
+            int pivotDoc = cursors[pivot].doc;
+            while (pivot + 1 < count && cursors[pivot + 1].doc == pivotDoc) pivot++;
+
+            // bound the score of the docs from the pivot on by the blocks of the lists up to it
+            double blockBound = 0;
+            int nextDoc = pivot + 1 < count ? cursors[pivot + 1].doc : Integer.MAX_VALUE;
+            for (int i = 0; i <= pivot; i++) {
+                TermCursor cursor = cursors[i];
+                if (!cursor.postings.advanceBlock(pivotDoc)) {
+                    cursor.doc = -1; // no more docs from the pivot on
+                    continue;
+                }
+                blockBound += getBlockBound(cursor);
+                nextDoc = Math.min(nextDoc, cursor.postings.getBlockLastDocId() + 1);
+            }
+
+            if (blockBound <= threshold) {
+                // no doc before nextDoc can get into top
+                for (int i = 0; i <= pivot; i++) {
+                    TermCursor cursor = cursors[i];
+                    if (cursor.doc >= 0) cursor.doc = nextDoc == Integer.MAX_VALUE ? -1 : cursor.postings.advance(nextDoc);
+                }
+            } else if (cursors[0].doc == pivotDoc) {
+                if ((languages != null && !languages.contains(store.getLanguage(pivotDoc)))
+                        || (cities != null && !cities.contains(store.getCity(pivotDoc)))) {
+                    for (int i = 0; i <= pivot; i++) cursors[i].doc = cursors[i].postings.nextDoc();
+                    continue;
+                }
+                // all the lists up to the pivot are on its doc: score it, adding the terms in the order of
+                // the query, so a doc gets the same score however its lists were read
+                int length = store.getTermCount(pivotDoc);
+                for (int i = 0; i <= pivot; i++) {
+                    TermCursor cursor = cursors[i];
+                    termScores[cursor.term] = score(cursor.weight, cursor.postings.getTf(), length);
+                    cursor.doc = cursor.postings.nextDoc();
+                }
+                double score = 0;
+                for (int i = 0; i < termScores.length; i++) {
+                    score += termScores[i];
+                    termScores[i] = 0;
+                }
+                collect(top, k, segment, pivotDoc, score);
+            } else {
+                // move the lists before the pivot to its doc
+                for (int i = 0; i <= pivot; i++) {
+                    TermCursor cursor = cursors[i];
+                    if (cursor.doc >= 0 && cursor.doc < pivotDoc) cursor.doc = cursor.postings.advance(pivotDoc);
+                }
+            }
+        }
+    }
+
+    /**
+     * Scores the docs of a segment that have all the terms of a query, and keeps the best in top
+     * @param segment index of segment
+     * @param terms of query
+     * @param k max number of docs to keep
+     * @param top heap of the best docs found so far, with the worst on top
+     */
+    private void searchSegmentAll(int segment, List<QueryTerm> terms, int k, PriorityQueue<Result> top) {
+        Integer[] order = new Integer[terms.size()];
+        PostingsReader.Cursor[] lists = openShortestFirst(segment, terms, order);
+        if (lists == null) return;
+
+        DocumentStore store = documents[segment];
+        double[] termScores = new double[terms.size()]; // score of every term in the doc being scored
+        for (int doc = intersect(lists, 0); doc >= 0; doc = intersect(lists, doc + 1)) {
+            int length = store.getTermCount(doc);
+            for (int i = 0; i < lists.length; i++) {
+                termScores[order[i]] = score(terms.get(order[i]).weight, lists[i].getTf(), length);
+            }
+            double score = 0;
+            for (double termScore : termScores) score += termScore;
+            collect(top, k, segment, doc, score);
+        }
+    }
+
+    /**
+     * Scores the docs of a segment that have a phrase, or terms within a distance of each other, and keeps
+     * the best in top
+     * @param segment index of segment
+     * @param terms of query
+     * @param phrase term of every token of phrase, or null to find the terms within distance
+     * @param distance max number of positions between the first and the last of the terms
+     * @param k max number of docs to keep
+     * @param top heap of the best docs found so far, with the worst on top
+     */
+    private void searchSegmentPositions(int segment, List<QueryTerm> terms, int[] phrase, int distance, int k,
+                                        PriorityQueue<Result> top) {
+        Integer[] order = new Integer[terms.size()];
+        PostingsReader.Cursor[] lists = openShortestFirst(segment, terms, order);
+        if (lists == null) return;
+        double proximityWeight = Double.MAX_VALUE; // lowest weight of the terms
+        for (QueryTerm term : terms) proximityWeight = Math.min(proximityWeight, term.weight);
+
+        DocumentStore store = documents[segment];
+        double[] termScores = new double[terms.size()]; // score of every term in the doc being scored
+        int[][] positions = new int[terms.size()][16]; // positions of every term in the doc being scored
+        int[] tfs = new int[terms.size()];
+        boolean[] read = new boolean[terms.size()]; // true for the terms whose positions were read
+        for (int doc = intersect(lists, 0); doc >= 0; doc = intersect(lists, doc + 1)) {
+            // only the docs with all the terms get here, so only their positions are read, from the rarest
+            // term, and a phrase stops being read when the terms read can't make it
+            Arrays.fill(read, false);
+            int matches = 1;
+            for (int i = 0; i < lists.length && matches > 0; i++) {
+                int term = order[i];
+                tfs[term] = lists[i].getTf();
+                if (positions[term].length < tfs[term]) positions[term] = new int[tfs[term] * 2];
+                lists[i].readPositions(positions[term]);
+                read[term] = true;
+                if (phrase != null) matches = countPhrases(phrase, positions, tfs, read);
+            }
+            if (phrase == null) matches = countWindows(positions, tfs, distance);
+            if (matches == 0) continue;
+
+            int length = store.getTermCount(doc);
+            for (int i = 0; i < lists.length; i++) {
+                termScores[order[i]] = score(terms.get(order[i]).weight, tfs[order[i]], length);
+            }
+            double score = 0;
+            for (double termScore : termScores) score += termScore;
+            score += score(proximityWeight, matches, length);
+            collect(top, k, segment, doc, score);
+        }
+    }
+
+    /**
+     * Opens the lists of the terms of a query in a segment, from the shortest
+     * @param segment index of segment
+     * @param terms of query
+     * @param order array to write the index in terms of the term of every list to
+     * @return the lists, or null if a term isn't in segment (so no doc of it has all the terms)
+     */
+    private PostingsReader.Cursor[] openShortestFirst(int segment, List<QueryTerm> terms, Integer[] order) {
+        for (int i = 0; i < order.length; i++) {
+            if (terms.get(i).positions[segment] < 0) return null;
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> terms.get(i).dfs[segment]));
+        PostingsReader.Cursor[] lists = new PostingsReader.Cursor[order.length];
+        for (int i = 0; i < order.length; i++) lists[i] = postings[segment].open(terms.get(order[i]).positions[segment]);
+        return lists;
+    }
+
+    /**
+     * Counts the times a phrase is in a doc. Every position of the phrase's term with the lowest tf is a
+     * possible start of the phrase, and the other terms are looked for right where they should be.
+     * @param phrase term of every token of phrase
+     * @param positions of every term in doc
+     * @param tfs of every term in doc
+     * @param read true for the terms whose positions were read. The others match anywhere.
+     * @return times phrase is in doc (as far as the terms read tell)
+     */
+    private static int countPhrases(int[] phrase, int[][] positions, int[] tfs, boolean[] read) {
+        int rarest = -1;
+        for (int i = 0; i < phrase.length; i++) {
+            if (read[phrase[i]] && (rarest < 0 || tfs[phrase[i]] < tfs[phrase[rarest]])) rarest = i;
+        }
+        int count = 0;
+        int[] rarestPositions = positions[phrase[rarest]];
+        for (int p = 0; p < tfs[phrase[rarest]]; p++) {
+            int start = rarestPositions[p] - rarest;
+            boolean found = start >= 0;
+            for (int i = 0; i < phrase.length && found; i++) {
+                int term = phrase[i];
+                found = i == rarest || !read[term] || Arrays.binarySearch(positions[term], 0, tfs[term], start + i) >= 0;
+            }
+            if (found) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the positions of a doc where all the terms have been seen within a distance: the positions
+     * of all the terms are read together in order, and at every one the last position of every term is
+     * compared with it.
+     * @param positions of every term in doc
+     * @param tfs of every term in doc
+     * @param distance max number of positions between the first and the last of the terms
+     * @return number of positions where all the terms are within distance, ending there
+     */
+    private static int countWindows(int[][] positions, int[] tfs, int distance) {
+        int[] next = new int[tfs.length]; // index of the next position of every term
+        int[] last = new int[tfs.length]; // last position of every term seen
+        Arrays.fill(last, -1);
+        int count = 0;
+        while (true) {
+            int term = -1;
+            for (int i = 0; i < tfs.length; i++) {
+                if (next[i] < tfs[i] && (term < 0 || positions[i][next[i]] < positions[term][next[term]])) term = i;
+            }
+            if (term < 0) return count;
+            int position = positions[term][next[term]++];
+            last[term] = position;
+            int first = position;
+            for (int lastPosition : last) first = Math.min(first, lastPosition);
+            if (first >= 0 && position - first <= distance) count++;
+        }
+    }
+
+    /**
+     * Finds the next doc that is in all the lists. The doc of the first list is looked for in the others,
+     * and when a list skips past it, the first list skips to that list's doc, so the first list should be
+     * the shortest.
+     * @param lists to intersect
+     * @param target doc id
+     * @return the first doc id not smaller than target that is in all lists (which are left on it), or -1
+     * if there is none
+     */
+    private static int intersect(PostingsReader.Cursor[] lists, int target) {
+        int doc = lists[0].advance(target);
+        for (int i = 1; i < lists.length && doc >= 0; ) {
+            int listDoc = lists[i].advance(doc);
+            if (listDoc == doc) i++;
+            else {
+                doc = listDoc < 0 ? -1 : lists[0].advance(listDoc);
+                i = 1;
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Keeps a doc in top if it's among the best k docs found so far
+     * @param top heap of the best docs found so far, with the worst on top
+     * @param k max number of docs to keep
+     * @param segment index of segment of doc
+     * @param docId id of doc in segment
+     * @param score of doc
+     */
+    private static void collect(PriorityQueue<Result> top, int k, int segment, int docId, double score) {
+        if (top.size() < k) top.add(new Result(segment, docId, score));
+        else if (score > top.peek().score) {
+            top.poll();
+            top.add(new Result(segment, docId, score));
+        }
+    }
+
+    /**
+     * Sorts cursors by their current doc, and leaves out the ones whose list is over. Only a few cursors
+     * move every time, so they are sorted by insertion.
+     * @param cursors to sort
+     * @param count number of cursors in array
+     * @return number of cursors left
+     */
+    private static int sort(TermCursor[] cursors, int count) {
+        int left = 0;
+        for (int i = 0; i < count; i++) {
+            TermCursor cursor = cursors[i];
+            if (cursor.doc < 0) continue;
+            int j = left++;
+            while (j > 0 && cursors[j - 1].doc > cursor.doc) {
+                cursors[j] = cursors[j - 1];
+                j--;
+            }
+            cursors[j] = cursor;
+        }
+        return left;
+    }
+
+    /**
+     * @param cursor of a term's list
+     * @return the highest score the term can get in any doc of the current block of its list
+     */
+    private double getBlockBound(TermCursor cursor) {
+        int block = cursor.postings.getBlockLastDocId();
+        if (cursor.boundBlock != block) {
+            int count = cursor.postings.readBlockImpacts(cursor.tfs, cursor.lengths);
+            double bound = 0;
+            for (int i = 0; i < count; i++) bound = Math.max(bound, score(cursor.weight, cursor.tfs[i], cursor.lengths[i]));
+            cursor.blockBound = bound;
+            cursor.boundBlock = block;
+        }
+        return cursor.blockBound;
+    }
+
+    /**
+     * @param weight of term (see QueryTerm)
+     * @param tf of term in doc
+     * @param length of doc
+     * @return BM25 score of term in doc
+     */
+    private double score(double weight, int tf, int length) {
+        return weight * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength));
+    }
+
+    /**
+     * The list of a term of a query in a segment, being read
+     */
+    private static class TermCursor {
+        /**
+         * index of term in query
+         */
+        private final int term;
+        private final PostingsReader.Cursor postings;
+        private final double weight;
+        /**
+         * the highest score the term can get in any doc of the list
+         */
+        private final double maxScore;
+        /**
+         * current doc, -1 when the list is over
+         */
+        private int doc;
+        /**
+         * the highest score the term can get in the block whose last doc is boundBlock
+         */
+        private double blockBound;
+        private int boundBlock = -1;
+        /**
+         * impacts of the current block, read to find blockBound
+         */
+        private final int[] tfs = new int[PostingsWriter.BLOCK_SIZE];
+        private final int[] lengths = new int[PostingsWriter.BLOCK_SIZE];
+
+        TermCursor(int term, PostingsReader.Cursor postings, double weight, double maxScore) {
+            this.term = term;
+            this.postings = postings;
+            this.weight = weight;
+            this.maxScore = maxScore;
+        }
+    }
+
+    /**
+     * A distinct term of a query
+     */
+    private static class QueryTerm {
+        /**
+         * times the term is in the query
+         */
+        private int count;
+        /**
+         * number of docs with the term, in all segments
+         */
+        private long df;
+        /**
+         * number of docs with the term in every segment
+         */
+        private final int[] dfs;
+        /**
+         * count * IDF of term
+         */
+        private double weight;
+        /**
+         * position of the postings list of the term in every segment (-1 if it's not in the segment)
+         */
+        private final long[] positions;
+        /**
+         * max tf of the term in every segment
+         */
+        private final int[] maxTfs;
+        /**
+         * min length of the docs with the term in every segment
+         */
+        private final int[] minLengths;
+
+        QueryTerm(int segmentCount) {
+            positions = new long[segmentCount];
+            Arrays.fill(positions, -1);
+            dfs = new int[segmentCount];
+            maxTfs = new int[segmentCount];
+            minLengths = new int[segmentCount];
+        }
+    }
+
+    /**
+     * A doc found by a query, with its score. Results are ordered by score, and docs with the same score
+     * by their order in the index (the first is the higher).
+     */
+    public static class Result implements Comparable<Result> {
+        private final int segment;
+        private final int docId;
+        private final double score;
+        private String docNo;
+
+        Result(int segment, int docId, double score) {
+            this.segment = segment;
+            this.docId = docId;
+            this.score = score;
+        }
+
+        /**
+         * @return DOCNO of doc
+         */
+        public String getDocNo() {
+            return docNo;
+        }
+
+        /**
+         * @return BM25 score of doc
+         */
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public int compareTo(Result other) {
+            if (score != other.score) return Double.compare(score, other.score);
+            if (segment != other.segment) return Integer.compare(other.segment, segment);
+            return Integer.compare(other.docId, docId);
+        }
+    }
+}
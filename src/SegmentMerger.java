@@ -0,0 +1,220 @@
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Keeps the number of segments of an index bounded by merging them in the background, with a log-structured
+ * policy: the level of a segment is the number of digits of its doc count in base MERGE_FACTOR, and whenever
+ * MERGE_FACTOR neighbouring segments are in the same level, they are merged into a single segment (of the
+ * next level). So there are never more than MERGE_FACTOR - 1 segments in a level, and every doc is merged
+ * once per level. Only neighbouring segments are merged, so the docs keep their order, and the postings
+ * list of a term in the merged segment is just its lists in the merged segments one after the other.
+ *
+ * All merges (of all indexes) run one at a time on a single background thread.
+ */
+public class SegmentMerger {
+
+    /**
+     * number of segments of a level that are merged together
+     */
+    public static final int MERGE_FACTOR = 10;
+
+    /**
+     * thread where merges run
+     */
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "segment merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Merges (in the background) the segments of an index while there are MERGE_FACTOR neighbouring
+     * segments in the same level
+     * @param indexPath path of index directory
+     */
+    public static void maybeMerge(String indexPath) {
+        executor.execute(() -> {
+            String buildingPath = null;
+            try {
+                Segments.removeUnusedSegments(indexPath);
+                Segments segments = Segments.read(indexPath);
+                List<Segments.Segment> toMerge;
+                while ((toMerge = findMerge(segments.getSegments())) != null) {
+                    String name = Segments.newSegment(indexPath);
+                    long start = System.currentTimeMillis();
+                    buildingPath = indexPath + "\\" + name + Segments.BUILDING;
+                    merge(toMerge, buildingPath);
+                    Segments.sync(buildingPath);
+                    Segments.moveBuilt(indexPath, buildingPath, name);
+                    Segments.replace(indexPath, toMerge, name);
+                    System.out.println("merged " + toMerge.size() + " segments into " + name + " in "
+                            + (System.currentTimeMillis() - start));
+                    segments = Segments.read(indexPath);
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                // a merge can't be resumed (it has no manifest), so what it wrote is removed
+                if (buildingPath != null && Files.exists(Paths.get(buildingPath))) {
+                    try {
+                        Indexer.removeDir(Paths.get(buildingPath));
+                    } catch (IOException removeError) {
+                        removeError.printStackTrace(); // removed by removeUnusedSegments next time
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until all the merges that were started are done
+     */
+    public static void waitForMerges() {
+        try {
+            executor.submit(() -> {}).get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Finds MERGE_FACTOR neighbouring segments in the same level
+     * @param segments of index
+     * @return the segments to merge, or null if there are none
+     */
+    private static List<Segments.Segment> findMerge(List<Segments.Segment> segments) {
+        int first = 0;
+        for (int i = 1; i <= segments.size(); i++) {
+            if (i == segments.size() || getLevel(segments.get(i)) != getLevel(segments.get(first))) {
+                if (i - first >= MERGE_FACTOR) return new ArrayList<>(segments.subList(first, first + MERGE_FACTOR));
+                first = i;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param segment of index
+     * @return level of segment: the number of digits of its doc count, in base MERGE_FACTOR
+     */
+    private static int getLevel(Segments.Segment segment) {
+        int level = 0;
+        for (long docCount = segment.getDocCount(); docCount > 0; docCount /= MERGE_FACTOR) level++;
+        return level;
+    }
+
+    /**
+     * Merges neighbouring segments into a new segment
+     * @param segments to merge, in order
+     * @param path of the new segment directory
+     */
+    static void merge(List<Segments.Segment> segments, String path) throws IOException {
+        new File(path).mkdirs();
+        mergePostings(segments, path);
+        mergeDocuments(segments, path);
+    }
+
+    /**
+     * Writes the postings and dictionary of the merged segment. It's a k-way merge of the segments'
+     * dictionaries (like Segments.forEachTerm): the lists of every term are copied as soon as it's the
+     * smallest current term of all of them, and the term is written to the new dictionary right away, so
+     * neither the terms nor the dictionary are held in memory.
+     * @param segments to merge, in order
+     * @param path of the new segment directory
+     */
+    private static void mergePostings(List<Segments.Segment> segments, String path) throws IOException {
+        TermDictionary.Cursor[] terms = new TermDictionary.Cursor[segments.size()];
+        PostingsReader[] readers = new PostingsReader[segments.size()];
+        PostingsReader.Cursor[] cursors = new PostingsReader.Cursor[segments.size()];
+        DocumentStore[] documents = new DocumentStore[segments.size()]; // lengths of docs, for the blocks' headers
+        // segments by their current term, and the segments with the same term in order
+        PriorityQueue<Integer> next = new PriorityQueue<>((a, b) -> {
+            int order = terms[a].compareTo(terms[b]);
+            return order != 0 ? order : Integer.compare(a, b);
+        });
+        for (int i = 0; i < segments.size(); i++) {
+            terms[i] = segments.get(i).getDictionary().open();
+            if (terms[i].next()) next.add(i);
+            readers[i] = new PostingsReader(segments.get(i).getPath() + "\\postings");
+            cursors[i] = readers[i].open(0);
+            documents[i] = new DocumentStore(segments.get(i).getPath());
+        }
+
+        // write the lists of every term one after the other, moving the doc ids of each segment after the ones before
+        int firstDocId = segments.get(0).getDocBase();
+        int[] having = new int[segments.size()]; // the segments that have the current term
+        int[] positions = new int[64];
+        try (PostingsWriter out = new PostingsWriter(path + "\\postings", true);
+             TermDictionary.Writer dictionary = new TermDictionary.Writer(path + "\\dictionary")) {
+            while (!next.isEmpty()) {
+                // take the term from all the segments that have it
+                String key = terms[next.peek()].getKey();
+                int count = 0;
+                long df = 0;
+                long cf = 0;
+                boolean lowerCase = false; // true if the term is in lowercase in any segment
+                while (!next.isEmpty() && terms[next.peek()].getKey().equals(key)) {
+                    int i = next.poll();
+                    having[count++] = i;
+                    df += terms[i].getDf();
+                    cf += terms[i].getCf();
+                    lowerCase |= terms[i].isLowerCase();
+                }
+
+                long listPosition = out.startList((int) df);
+                for (int j = 0; j < count; j++) {
+                    int i = having[j];
+                    int docBase = segments.get(i).getDocBase() - firstDocId;
+                    PostingsReader.Cursor cursor = cursors[i];
+                    cursor.reset(terms[i].getPosition());
+                    int docId;
+                    while ((docId = cursor.nextDoc()) >= 0) {
+                        if (positions.length < cursor.getTf()) positions = new int[cursor.getTf() * 2];
+                        int tf = cursor.readPositions(positions);
+                        out.writePosting(docBase + docId, cursor.isInTitle(), tf, positions, 0,
+                                documents[i].getTermCount(docId));
+                    }
+                    if (terms[i].next()) next.add(i);
+                }
+                dictionary.add(lowerCase ? key.toLowerCase() : key,
+                        new long[]{df, cf, listPosition, out.getMaxTf(), out.getMinLength()});
+            }
+        }
+    }
+
+    /**
+     * Writes the documents, docnos, files, cities and languages of the merged segment
+     * @param segments to merge, in order
+     * @param path of the new segment directory
+     */
+    private static void mergeDocuments(List<Segments.Segment> segments, String path) throws IOException {
+        DocumentBuffer documents = new DocumentBuffer();
+        SortedSet<String> files = new TreeSet<>();
+        TreeMap<String, String> cities = new TreeMap<>(); // line of every city in cities file
+        SortedSet<String> languages = new TreeSet<>();
+        int firstDocId = segments.get(0).getDocBase();
+        for (Segments.Segment segment : segments) {
+            String segmentPath = segment.getPath();
+            files.addAll(Segments.readLines(segmentPath + "\\files"));
+            for (String line : Segments.readLines(segmentPath + "\\cities")) cities.putIfAbsent(line.split("\\|")[0], line);
+            languages.addAll(Segments.readLines(segmentPath + "\\languages"));
+
+            DocumentStore store = new DocumentStore(segmentPath);
+            for (int id = 0; id < store.size(); id++) {
+                LocalDate date = store.getDate(id);
+                documents.add(segment.getDocBase() - firstDocId + id, store.getDocNo(id), store.getFile(id),
+                        store.getPositionInFile(id), store.getTermCount(id), store.getMaxTf(id), store.getCity(id),
+                        store.getLanguage(id), date == null ? "" : date.toString());
+            }
+        }
+        DocumentStore.write(path, new DocumentBuffer[]{documents}, files, cities.keySet(), languages);
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(path + "\\cities"))) {
+            for (String line : cities.values()) out.write(line + "\n");
+        }
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(path + "\\languages"))) {
+            for (String language : languages) out.write(language + "\n");
+        }
+    }
+}
@@ -0,0 +1,526 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The segments of an index. An index is first built as a single segment, and whenever new files of the
+ * corpus are added to it they are indexed into a new segment, so adding files costs time proportional to
+ * them and not to the whole corpus. Every segment is a directory inside the index directory with its own
+ * dictionary, postings, documents, docnos, files, cities and languages, and the ids of its docs start from 0.
+ *
+ * The "segments" file lists the segments in the order of their docs, one per line as "name|docCount".
+ * So the id of a doc in the whole index is its id in its segment plus the docs of all the segments before it.
+ * The file is always replaced at once (written aside and renamed), so readers never see half a list.
+ * Its first line is "version|n", where n grows every time the file is replaced, even by a new index in
+ * the same path (it's at least the time it was written, in milliseconds), so whoever keeps something
+ * computed from the index knows when it's out of date.
+ * A segment is built in a directory with the BUILDING suffix, which is renamed when the segment is complete,
+ * so a segment directory without the suffix is always complete.
+ */
+public class Segments {
+
+    /**
+     * name of the file that lists the segments
+     */
+    public static final String FILE_NAME = "segments";
+    /**
+     * prefix of the name of every segment directory
+     */
+    private static final String PREFIX = "segment_";
+    /**
+     * suffix of the directory of a segment that is being built
+     */
+    public static final String BUILDING = ".building";
+    /**
+     * name of the first line of the segments file, which holds its version
+     */
+    private static final String VERSION = "version";
+
+    /**
+     * path of index directory
+     */
+    private final String indexPath;
+    /**
+     * the segments, in the order of their docs
+     */
+    private final List<Segment> segments;
+    /**
+     * version of the segments file (0 if it has none)
+     */
+    private final long version;
+
+    /**
+     * Constructor
+     * @param indexPath path of index directory
+     * @param segments in the order of their docs
+     * @param version of the segments file
+     */
+    private Segments(String indexPath, List<Segment> segments, long version) {
+        this.indexPath = indexPath;
+        this.segments = segments;
+        this.version = version;
+        int docBase = 0;
+        for (Segment segment : segments) {
+            segment.docBase = docBase;
+            docBase += segment.docCount;
+        }
+    }
+
+    /**
+     * @param indexPath path of index directory
+     * @return true if there's an index (with at least one segment) in path
+     */
+    public static boolean exists(String indexPath) {
+        return Files.exists(Paths.get(indexPath + "\\" + FILE_NAME));
+    }
+
+    /**
+     * Reads the list of segments of an index
+     * @param indexPath path of index directory
+     * @return the segments
+     */
+    public static synchronized Segments read(String indexPath) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        long version = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(indexPath + "\\" + FILE_NAME)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                String[] fields = line.split("\\|");
+                if (fields[0].equals(VERSION)) version = Long.parseLong(fields[1]);
+                else segments.add(new Segment(indexPath, fields[0], Integer.parseInt(fields[1])));
+            }
+        }
+        return new Segments(indexPath, segments, version);
+    }
+
+    /**
+     * Reads only the version of the segments file of an index, which is cheaper than reading the segments
+     * @param indexPath path of index directory
+     * @return version of the segments file, 0 if it has none, or -1 if there's no index in path
+     */
+    public static long readVersion(String indexPath) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(indexPath + "\\" + FILE_NAME)))) {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(VERSION + "|")) return 0;
+            return Long.parseLong(line.substring(VERSION.length() + 1));
+        } catch (FileNotFoundException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Adds a segment (that was already written) after the last one of an index
+     * @param indexPath path of index directory
+     * @param name of segment
+     * @param docCount number of docs in segment
+     */
+    public static synchronized void add(String indexPath, String name, int docCount) throws IOException {
+        List<Segment> segments = exists(indexPath) ? read(indexPath).segments : new ArrayList<>();
+        segments.add(new Segment(indexPath, name, docCount));
+        write(indexPath, segments);
+    }
+
+    /**
+     * Publishes a segment that was built: renames its directory and adds it after the last segment of index
+     * @param indexPath path of index directory
+     * @param buildingPath path of the directory where segment was built
+     * @param name of segment
+     * @param docCount number of docs in segment
+     */
+    public static synchronized void publish(String indexPath, String buildingPath, String name, int docCount)
+            throws IOException {
+        moveBuilt(indexPath, buildingPath, name);
+        add(indexPath, name, docCount);
+    }
+
+    /**
+     * Publishes a segment that was built as the whole new index: renames its directory and makes it the
+     * only segment of index, at once (by replacing the segments file). The directories of the old segments
+     * are left for removeUnusedSegments, so whoever was reading them can finish.
+     * @param indexPath path of index directory
+     * @param buildingPath path of the directory where segment was built, or null if the new index is empty
+     * @param name of segment
+     * @param docCount number of docs in segment
+     */
+    public static synchronized void publishReplacing(String indexPath, String buildingPath, String name,
+                                                     int docCount) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        if (buildingPath != null) {
+            moveBuilt(indexPath, buildingPath, name);
+            segments.add(new Segment(indexPath, name, docCount));
+        }
+        write(indexPath, segments);
+    }
+
+    /**
+     * Renames the directory where a segment was built to the segment's name, and forces the rename to the
+     * disk, so the segments file never lists a segment that a crash could leave under its building name
+     * @param indexPath path of index directory
+     * @param buildingPath path of the directory where segment was built
+     * @param name of segment
+     */
+    public static void moveBuilt(String indexPath, String buildingPath, String name) throws IOException {
+        Files.move(Paths.get(buildingPath), Paths.get(indexPath + "\\" + name), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(indexPath);
+    }
+
+    /**
+     * Replaces neighbouring segments of an index with the segment they were merged into
+     * @param indexPath path of index directory
+     * @param merged the segments that were merged, in order
+     * @param name of the segment they were merged into (that was already written)
+     */
+    public static synchronized void replace(String indexPath, List<Segment> merged, String name) throws IOException {
+        List<Segment> segments = read(indexPath).segments;
+        int first = 0;
+        while (!segments.get(first).name.equals(merged.get(0).name)) first++;
+        int docCount = 0;
+        for (int i = 0; i < merged.size(); i++) {
+            if (!segments.get(first + i).name.equals(merged.get(i).name)) {
+                throw new IOException("Merged segments are not in the index anymore: " + merged.get(i).name);
+            }
+            docCount += merged.get(i).docCount;
+        }
+        segments.subList(first, first + merged.size()).clear();
+        segments.add(first, new Segment(indexPath, name, docCount));
+        write(indexPath, segments);
+    }
+
+    /**
+     * Writes the segments file aside, forces it to the disk and then renames it over the old one (and forces
+     * the rename too). So after a crash the file is either the old one or the new one, and never empty or torn.
+     * @param indexPath path of index directory
+     * @param segments to write
+     */
+    private static void write(String indexPath, List<Segment> segments) throws IOException {
+        Path path = Paths.get(indexPath + "\\" + FILE_NAME);
+        Path newPath = Paths.get(indexPath + "\\" + FILE_NAME + ".new");
+        long version = Math.max(readVersion(indexPath) + 1, System.currentTimeMillis());
+        StringBuilder lines = new StringBuilder(VERSION + "|" + version + "\n");
+        for (Segment segment : segments) lines.append(segment.name).append("|").append(segment.docCount).append("\n");
+        try (FileChannel out = FileChannel.open(newPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) out.write(bytes);
+            out.force(true);
+        }
+        Files.move(newPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(indexPath);
+    }
+
+    /**
+     * @return version of the segments file (see readVersion)
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the segments, in the order of their docs
+     */
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return number of docs in all segments
+     */
+    public int getDocumentCount() {
+        int documentCount = 0;
+        for (Segment segment : segments) documentCount += segment.docCount;
+        return documentCount;
+    }
+
+    /**
+     * Takes a name for a new segment, that no segment directory in the index has, and creates the directory
+     * where it's built, at once. So builds and merges that run at the same time never take the same name.
+     * @param indexPath path of index directory
+     * @return name of the new segment (its directory is the name with the BUILDING suffix)
+     */
+    public static synchronized String newSegment(String indexPath) {
+        int last = -1;
+        File[] files = new File(indexPath).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.startsWith(PREFIX)) continue;
+                if (name.endsWith(BUILDING)) name = name.substring(0, name.length() - BUILDING.length());
+                try {
+                    last = Math.max(last, Integer.parseInt(name.substring(PREFIX.length())));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        String name = PREFIX + (last + 1);
+        new File(indexPath + "\\" + name + BUILDING).mkdirs();
+        return name;
+    }
+
+    /**
+     * @return path of a segment that was being built when its build was interrupted, or null if there's none
+     */
+    public static String getInterruptedBuild(String indexPath) {
+        File[] files = new File(indexPath).listFiles();
+        if (files == null) return null;
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory() && name.startsWith(PREFIX) && name.endsWith(BUILDING)
+                    && new File(file, Manifest.FILE_NAME).exists()) {
+                return file.getAbsolutePath();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the directories of the segments that are not in the index anymore (the ones that were merged).
+     * They are not removed right after the merge, so that whoever was reading them can finish.
+     * Also removes the directories of merges that were interrupted (being built but without a manifest,
+     * so they can't be resumed). The directories of segments being built by the indexer are left.
+     * Must not run while a merge is running (it runs before the merges, on their thread).
+     * @param indexPath path of index directory
+     */
+    public static synchronized void removeUnusedSegments(String indexPath) throws IOException {
+        Set<String> names = new HashSet<>();
+        for (Segment segment : read(indexPath).segments) names.add(segment.name);
+        File[] files = new File(indexPath).listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (!file.isDirectory() || !name.startsWith(PREFIX) || names.contains(name)) continue;
+            if (name.endsWith(BUILDING) && new File(file, Manifest.FILE_NAME).exists()) continue;
+            try {
+                Indexer.removeDir(file.toPath());
+            } catch (IOException e) {
+                e.printStackTrace(); // still open, will be removed next time
+            }
+        }
+    }
+
+    /**
+     * @return names of all the corpus files that have docs in index
+     */
+    public Set<String> getFiles() throws IOException {
+        Set<String> files = new HashSet<>();
+        for (Segment segment : segments) files.addAll(readLines(segment.getPath() + "\\files"));
+        return files;
+    }
+
+    /**
+     * @return languages of the docs of all segments
+     */
+    public SortedSet<String> getLanguages() throws IOException {
+        SortedSet<String> languages = new TreeSet<>();
+        for (Segment segment : segments) languages.addAll(readLines(segment.getPath() + "\\languages"));
+        return languages;
+    }
+
+    /**
+     * @return number of terms in the dictionaries of all segments (a term in many segments is counted once)
+     */
+    public int getTermCount() throws IOException {
+        if (segments.size() == 1) return segments.get(0).getDictionary().size();
+        int[] termCount = {0};
+        forEachTerm((term, termData) -> termCount[0]++);
+        return termCount[0];
+    }
+
+    /**
+     * Goes through the dictionaries of all segments as one dictionary, in order of the terms' keys,
+     * merging them on the fly instead of loading them: the df and cf of a term are the sum of its df and
+     * cf in every segment (its max tf and min doc length, the max and min), and the term is in lowercase
+     * if it's in lowercase in any segment.
+     * @param action to do for every term with {df, cf, position of postings, max tf, min doc length}.
+     *               The position is only kept when there's a single segment (else it's -1, since every
+     *               segment has its own postings).
+     */
+    public void forEachTerm(BiConsumer<String, long[]> action) throws IOException {
+        forEachTerm(TermDictionary::open, action);
+    }
+
+    /**
+     * Like forEachTerm(), for the terms that start with a prefix
+     * @param prefix of terms, in any case
+     * @param action to do for every term with {df, cf, position of postings, max tf, min doc length}
+     */
+    public void forEachTermWithPrefix(String prefix, BiConsumer<String, long[]> action) throws IOException {
+        forEachTerm(dictionary -> dictionary.openPrefix(prefix), action);
+    }
+
+    /**
+     * Like forEachTerm(), for the terms in a range
+     * @param from first term of range, in any case (null for no limit)
+     * @param to first term after range, in any case (null for no limit)
+     * @param action to do for every term with {df, cf, position of postings, max tf, min doc length}
+     */
+    public void forEachTermInRange(String from, String to, BiConsumer<String, long[]> action) throws IOException {
+        forEachTerm(dictionary -> dictionary.openRange(from, to), action);
+    }
+
+    /**
+     * Like forEachTerm(), for the terms that match a wildcard pattern
+     * @param pattern of terms, in any case, where '*' stands for any characters and '?' for any character
+     * @param action to do for every term with {df, cf, position of postings, max tf, min doc length}
+     */
+    public void forEachTermMatching(String pattern, BiConsumer<String, long[]> action) throws IOException {
+        forEachTerm(dictionary -> dictionary.openWildcard(pattern), action);
+    }
+
+    /**
+     * Goes through the terms read by a cursor of every segment's dictionary, as one dictionary
+     * @param open opens the cursor of a dictionary
+     * @param action to do for every term with {df, cf, position of postings, max tf, min doc length}
+     */
+    private void forEachTerm(Function<TermDictionary, TermDictionary.Cursor> open, BiConsumer<String, long[]> action)
+            throws IOException {
+        if (segments.size() == 1) {
+            TermDictionary.Cursor cursor = open.apply(segments.get(0).getDictionary());
+            while (cursor.next()) {
+                action.accept(cursor.getTerm(), new long[]{cursor.getDf(), cursor.getCf(), cursor.getPosition(),
+                        cursor.getMaxTf(), cursor.getMinLength()});
+            }
+            return;
+        }
+        PriorityQueue<TermDictionary.Cursor> cursors = new PriorityQueue<>();
+        for (Segment segment : segments) {
+            TermDictionary.Cursor cursor = open.apply(segment.getDictionary());
+            if (cursor.next()) cursors.add(cursor);
+        }
+        while (!cursors.isEmpty()) {
+            // take the term from all the segments that have it
+            String key = cursors.peek().getKey();
+            long[] termData = {0, 0, -1, 0, Long.MAX_VALUE};
+            boolean lowerCase = false;
+            while (!cursors.isEmpty() && cursors.peek().getKey().equals(key)) {
+                TermDictionary.Cursor cursor = cursors.poll();
+                termData[0] += cursor.getDf();
+                termData[1] += cursor.getCf();
+                termData[3] = Math.max(termData[3], cursor.getMaxTf());
+                termData[4] = Math.min(termData[4], cursor.getMinLength());
+                lowerCase |= cursor.isLowerCase();
+                if (cursor.next()) cursors.add(cursor);
+            }
+            action.accept(lowerCase ? key.toLowerCase() : key, termData);
+        }
+    }
+
+    /**
+     * Gets the form of a term that is the same whether the term is in lowercase or uppercase
+     * in the dictionary: the term in uppercase (unless it starts with a digit, as in the temporal postings).
+     * @param term as in dictionary
+     * @return key of term
+     */
+    public static String getKey(String term) {
+        return Character.isDigit(term.charAt(0)) ? term : term.toUpperCase();
+    }
+
+    /**
+     * Writes the dictionary of a segment (see TermDictionary)
+     * @param segmentPath path of segment directory
+     * @param dictionary where every term is mapped to {df, cf, position of postings, max tf, min doc length}
+     */
+    public static void writeDictionary(String segmentPath, Map<String, long[]> dictionary) throws IOException {
+        TermDictionary.write(segmentPath + "\\dictionary", dictionary);
+    }
+
+    /**
+     * Forces all the files of a directory (not of its subdirectories) to the disk, and the directory itself
+     * @param path of directory
+     */
+    public static void sync(String path) throws IOException {
+        File[] files = new File(path).listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.isFile()) continue;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        syncDirectory(path);
+    }
+
+    /**
+     * Forces the entries of a directory (the files created, renamed or deleted in it) to the disk.
+     * Where directories can't be opened (Windows) it does nothing: there the file system commits the
+     * entries itself.
+     * @param path of directory
+     */
+    static void syncDirectory(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // a directory can't be opened as a file here
+        }
+    }
+
+    static List<String> readLines(String path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (!Files.exists(Paths.get(path))) return lines;
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(path)))) {
+            String line;
+            while ((line = reader.readLine()) != null) lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * A segment of the index
+     */
+    public static class Segment {
+        private final String indexPath;
+        private final String name;
+        private final int docCount;
+        /**
+         * docs in the segments before this one
+         */
+        private int docBase;
+        /**
+         * dictionary of segment, mapped when it's first needed
+         */
+        private TermDictionary dictionary;
+
+        Segment(String indexPath, String name, int docCount) {
+            this.indexPath = indexPath;
+            this.name = name;
+            this.docCount = docCount;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return path of segment directory
+         */
+        public String getPath() {
+            return indexPath + "\\" + name;
+        }
+
+        /**
+         * @return number of docs in segment
+         */
+        public int getDocCount() {
+            return docCount;
+        }
+
+        /**
+         * @return id (in the whole index) of the first doc of segment
+         */
+        public int getDocBase() {
+            return docBase;
+        }
+
+        /**
+         * @return dictionary of segment
+         */
+        public synchronized TermDictionary getDictionary() throws IOException {
+            if (dictionary == null) dictionary = new TermDictionary(getPath() + "\\dictionary");
+            return dictionary;
+        }
+    }
+}
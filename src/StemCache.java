@@ -0,0 +1,179 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the stems of words, shared by all the parsing threads. Words are looked up ignoring case,
+ * straight from the token, so no lowercase String is created unless the word has to be stemmed.
+ * Every thread first looks in its own small direct-mapped cache of the words it saw lately, and
+ * then in a shared set-associative table of fixed size. The shared table is never locked: entries
+ * are put with compare-and-set, and when a set is full the entry that wasn't used since the last
+ * time the set was full is replaced (clock / second chance).
+ */
+public class StemCache {
+
+    /**
+     * entries in every set of the shared table
+     */
+    private static final int WAYS = 4;
+    /**
+     * entries in the cache of every thread
+     */
+    private static final int FRONT_SIZE = 1024;
+
+    /**
+     * shared table. Set s is in positions s * WAYS to s * WAYS + WAYS - 1
+     */
+    private final AtomicReferenceArray<Entry> table;
+    /**
+     * mask to get the set of a hash
+     */
+    private final int setMask;
+    /**
+     * cache of every thread
+     */
+    private final ThreadLocal<Entry[]> front = ThreadLocal.withInitial(() -> new Entry[FRONT_SIZE]);
+    /**
+     * number of words found in cache
+     */
+    private final LongAdder hits = new LongAdder();
+    /**
+     * number of words that had to be stemmed
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructor
+     * @param capacity max number of words in the shared table (rounded up to a power of two)
+     */
+    public StemCache(int capacity) {
+        int sets = 1;
+        while (sets * WAYS < capacity) sets <<= 1;
+        table = new AtomicReferenceArray<>(sets * WAYS);
+        setMask = sets - 1;
+    }
+
+    /**
+     * Returns the stem of the lowercase form of a word, from cache if possible. Both the lowercase
+     * and the uppercase forms of the stem are cached, so the caller doesn't have to change its case.
+     * @param word to stem
+     * @param upperCase true to get the stem in uppercase
+     * @param stemmer to use if word is not in cache. Must belong to the calling thread.
+     * @return stem
+     */
+    public String stem(String word, boolean upperCase, PorterStemmer stemmer) {
+        int hash = hash(word);
+        Entry[] frontCache = front.get();
+        int frontSlot = hash & (FRONT_SIZE - 1);
+        Entry entry = frontCache[frontSlot];
+        if (entry != null && entry.hash == hash && entry.matches(word)) {
+            hits.increment();
+            return upperCase ? entry.upperCaseStem : entry.stem;
+        }
+
+        int base = (hash & setMask) * WAYS;
+        for (int way = 0; way < WAYS; way++) {
+            entry = table.get(base + way);
+            if (entry != null && entry.hash == hash && entry.matches(word)) {
+                entry.referenced = true;
+                frontCache[frontSlot] = entry;
+                hits.increment();
+                return upperCase ? entry.upperCaseStem : entry.stem;
+            }
+        }
+
+        misses.increment();
+        int length = word.length();
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) chars[i] = Character.toLowerCase(word.charAt(i));
+        String key = new String(chars);
+        length = stemmer.stem(chars, 0, length, chars);
+        String stem = new String(chars, 0, length);
+        for (int i = 0; i < length; i++) chars[i] = Character.toUpperCase(chars[i]);
+        entry = new Entry(key, stem, new String(chars, 0, length), hash);
+        put(base, entry);
+        frontCache[frontSlot] = entry;
+        return upperCase ? entry.upperCaseStem : entry.stem;
+    }
+
+    /**
+     * @return number of words found in cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of words that had to be stemmed
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Puts an entry in its set of the shared table. If some other thread changes the set at the same
+     * time the entry may not be put, which only means it will have to be stemmed again.
+     * @param base position of set in table
+     * @param entry to put
+     */
+    private void put(int base, Entry entry) {
+        for (int way = 0; way < WAYS; way++) {
+            if (table.get(base + way) == null && table.compareAndSet(base + way, null, entry)) return;
+        }
+        // set is full: give a second chance to entries that were used since the last time
+        for (int i = 0; i < 2 * WAYS; i++) {
+            int position = base + i % WAYS;
+            Entry victim = table.get(position);
+            if (victim == null) continue;
+            if (victim.referenced) victim.referenced = false;
+            else {
+                table.compareAndSet(position, victim, entry);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hash of the lowercase form of a word
+     * @param word to hash
+     * @return hash
+     */
+    private static int hash(String word) {
+        int hash = 0;
+        for (int i = 0; i < word.length(); i++) hash = 31 * hash + Character.toLowerCase(word.charAt(i));
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * A word (in lowercase) and its stem
+     */
+    private static class Entry {
+
+        private final String key;
+        private final String stem;
+        private final String upperCaseStem;
+        private final int hash;
+        /**
+         * true if entry was used since the last time its set was full. Races are harmless.
+         */
+        private boolean referenced;
+
+        Entry(String key, String stem, String upperCaseStem, int hash) {
+            this.key = key;
+            this.stem = stem;
+            this.upperCaseStem = upperCaseStem;
+            this.hash = hash;
+        }
+
+        /**
+         * @param word to compare
+         * @return true if the lowercase form of word is the key
+         */
+        boolean matches(String word) {
+            if (key.length() != word.length()) return false;
+            for (int i = 0; i < key.length(); i++) {
+                if (key.charAt(i) != Character.toLowerCase(word.charAt(i))) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares the ways of stemming a token, in words per second and bytes allocated per word. The words are
+ * the tokens made of letters of a corpus, in the order and case they are found, and a word that starts
+ * with an uppercase letter gets its stem in uppercase (as in Parse.getTerm). The ways are:
+ * - string: the stemmer's String entry point on the lowercase word, and toUpperCase() when needed;
+ * - buffer: the word lowercased into a buffer and stemmed into it (PorterStemmer.stem(char[], int, int,
+ *   char[])), and uppercased in it when needed;
+ * - cache, then toUpperCase: the stem cache asked for the lowercase stem, and toUpperCase() when needed,
+ *   as Parse did before the cache kept both cases;
+ * - cache: the stem cache asked for the stem in the case needed, as Parse does.
+ * First every word is stemmed every way, and the stems must be the same. Then every way is timed over all
+ * the words, and the best of some rounds is printed. Exits with status 1 if any stem differs.
+ * The words are held in memory, so for a big corpus give a directory with a part of it.
+ *
+ * Usage: StemmerBench corpusPath [rounds]
+ * corpusPath is a corpus directory with its stop_words.txt, like the ones indexed. rounds is the number of
+ * times every way is timed (5 if not given).
+ */
+public class StemmerBench {
+
+    /**
+     * most differences printed
+     */
+    private static final int MAX_PRINTED = 20;
+    /**
+     * names of the ways of stemming
+     */
+    private static final String[] WAYS = {"string", "buffer", "cache, then toUpperCase", "cache"};
+
+    public static void main(String[] args) throws IOException {
+        String corpusPath = args[0];
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String stopWordsName = "stop_words.txt";
+        Parse parse = new Parse(Indexer.getStopWords(corpusPath + "\\" + stopWordsName),
+                Cities.get_cities_dictionary(), new ConcurrentHashMap<>(), Indexer.getMonths(), new StemCache(1 << 12),
+                Indexer.getStopSuffixes(), Indexer.getStopPrefixes(), false);
+
+        // get the words of every doc
+        List<String> filePaths = new ArrayList<>();
+        Indexer.walk(corpusPath, filePaths);
+        filePaths.removeIf(filePath -> new File(filePath).getName().equals(stopWordsName));
+        Collections.sort(filePaths);
+        TrecScanner scanner = new TrecScanner();
+        List<String> words = new ArrayList<>();
+        for (String filePath : filePaths) {
+            ReadFile file = new ReadFile(filePath);
+            CharSequence docString;
+            while ((docString = file.nextDoc()) != null) {
+                if (!scanner.scan(docString)) continue;
+                TokenBuffer tokens = parse.getTokens(scanner.getText());
+                for (int i = 0; i < tokens.size(); i++) {
+                    if (isWord(tokens.get(i))) words.add(tokens.get(i));
+                }
+            }
+        }
+
+        // compare the stems
+        Stemming stemming = new Stemming();
+        int different = 0;
+        for (String word : words) {
+            String stem = stemming.stem(0, word);
+            for (int way = 1; way < WAYS.length; way++) {
+                String other = stemming.stem(way, word);
+                if (other.equals(stem)) continue;
+                if (different++ < MAX_PRINTED) System.out.println(word + ": " + stem + " / " + WAYS[way] + " " + other);
+            }
+        }
+        System.out.println(words.size() + " words, " + stemming.cache.getMisses() + " stemmed by the cache, "
+                + different + " different");
+
+        // time every way
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        double[] times = new double[WAYS.length];
+        long[] allocated = new long[WAYS.length];
+        Arrays.fill(times, Double.MAX_VALUE);
+        long checksum = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int way = 0; way < WAYS.length; way++) {
+                long bytes = threads.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                for (String word : words) checksum += stemming.time(way, word);
+                times[way] = Math.min(times[way], (System.nanoTime() - start) / 1e6);
+                allocated[way] = threads.getThreadAllocatedBytes(thread) - bytes;
+            }
+        }
+        System.out.println("way                            ms  words/s  bytes/word  (" + checksum + ")");
+        for (int way = 0; way < WAYS.length; way++) {
+            System.out.println(String.format("%-25s %8.1f %8.2fM %11.1f", WAYS[way], times[way],
+                    words.size() / times[way] / 1e3, (double) allocated[way] / words.size()));
+        }
+        if (different > 0) System.exit(1);
+    }
+
+    /**
+     * @param token to check
+     * @return true if token is made of letters only
+     */
+    private static boolean isWord(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isLetter(token.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stems words in every way
+     */
+    private static class Stemming {
+
+        /**
+         * the stemmer, of every way
+         */
+        private PorterStemmer stemmer = new PorterStemmer();
+        /**
+         * stem cache, of the cache ways
+         */
+        private StemCache cache = new StemCache(1 << 16);
+        /**
+         * buffer the words are stemmed in, by the buffer way
+         */
+        private char[] buffer = new char[64];
+
+        /**
+         * @param way index of way (in WAYS)
+         * @param word to stem
+         * @return the stem
+         */
+        String stem(int way, String word) {
+            if (way != 1) return stemString(way, word);
+            int length = stemBuffer(word);
+            return new String(buffer, 0, length);
+        }
+
+        /**
+         * Stems a word without keeping the stem, as it's done when timing
+         * @param way index of way (in WAYS)
+         * @param word to stem
+         * @return a number that depends on the stem, so that the stemming can't be left out
+         */
+        int time(int way, String word) {
+            if (way != 1) return stemString(way, word).length();
+            int length = stemBuffer(word);
+            return length + buffer[0];
+        }
+
+        private String stemString(int way, String word) {
+            boolean upper = Character.isUpperCase(word.charAt(0));
+            String stem;
+            switch (way) {
+                case 0: stem = stemmer.stem(word.toLowerCase()); break;
+                case 2: stem = cache.stem(word, false, stemmer); break;
+                default: return cache.stem(word, upper, stemmer);
+            }
+            return upper ? stem.toUpperCase() : stem;
+        }
+
+        /**
+         * @param word to stem into buffer
+         * @return length of stem
+         */
+        private int stemBuffer(String word) {
+            int length = word.length();
+            if (length > buffer.length) buffer = new char[length * 2];
+            for (int i = 0; i < length; i++) buffer[i] = Character.toLowerCase(word.charAt(i));
+            length = stemmer.stem(buffer, 0, length, buffer);
+            if (Character.isUpperCase(word.charAt(0))) {
+                for (int i = 0; i < length; i++) buffer[i] = Character.toUpperCase(buffer[i]);
+            }
+            return length;
+        }
+    }
+}
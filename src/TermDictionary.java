@@ -0,0 +1,517 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The dictionary of a segment: a binary file with the terms sorted by key (see Segments.getKey), that is
+ * memory-mapped instead of read into the heap. A term is looked up by binary search over the first key of
+ * every block of BLOCK_SIZE terms, and then a scan of that block, comparing the bytes in the file without
+ * creating Strings. Inside a block the keys are front-coded (every key keeps only what it doesn't share
+ * with the key before it), so the file is a fraction of the text dictionary it replaces.
+ * Since the terms are sorted, the terms with a prefix, or in a range, are next to each other: they are
+ * enumerated by seeking to the first one and reading on until the last one, in time proportional to them.
+ *
+ * Every term is written as:
+ * vint prefix          bytes shared with the key before it (0 for the first of a block)
+ * vint suffix length, suffix bytes (UTF-8)
+ * byte case            TERM_IS_KEY, TERM_IS_LOWERCASE (the key in lowercase) or TERM_FOLLOWS
+ *                      (vint length and bytes of the term)
+ * vlong df, vlong cf, vlong position of postings list
+ * vlong max tf, vlong min length of the docs in the list (they bound the score of the term in any doc)
+ * Then the position of every block (an int per block), and the number of terms, the number of blocks
+ * and the position of the blocks' positions (an int each).
+ *
+ * Many cursors (of many threads) can read from the same dictionary.
+ */
+public class TermDictionary {
+
+    /**
+     * terms per block
+     */
+    private static final int BLOCK_SIZE = 16;
+    private static final int TERM_IS_KEY = 0;
+    private static final int TERM_IS_LOWERCASE = 1;
+    private static final int TERM_FOLLOWS = 2;
+
+    /**
+     * the mapped dictionary file
+     */
+    private final MappedByteBuffer buffer;
+    /**
+     * number of terms
+     */
+    private final int size;
+    private final int blockCount;
+    /**
+     * position in file of the positions of the blocks
+     */
+    private final int blockPositions;
+
+    /**
+     * Constructor. Maps the file into memory.
+     * @param path of dictionary file
+     */
+    public TermDictionary(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Dictionary is too large to map: " + path);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int trailer = buffer.capacity() - 12;
+        size = buffer.getInt(trailer);
+        blockCount = buffer.getInt(trailer + 4);
+        blockPositions = buffer.getInt(trailer + 8);
+    }
+
+    /**
+     * Writes a dictionary
+     * @param path of dictionary file
+     * @param dictionary where every term is mapped to {df, cf, position of postings, max tf, min doc length}
+     */
+    public static void write(String path, Map<String, long[]> dictionary) throws IOException {
+        Entry[] entries = new Entry[dictionary.size()];
+        int n = 0;
+        for (Map.Entry<String, long[]> entry : dictionary.entrySet()) {
+            entries[n++] = new Entry(entry.getKey(), entry.getValue());
+        }
+        Arrays.sort(entries, (a, b) -> Arrays.compareUnsigned(a.key, b.key));
+
+        try (Writer writer = new Writer(path)) {
+            for (Entry entry : entries) writer.add(entry.term, entry.key, entry.termData);
+        }
+    }
+
+    private static void writeVLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * @return number of terms
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Looks up a term, in any case (see Segments.getKey)
+     * @param term to look up
+     * @return {df, cf, position of postings, max tf, min doc length} of term, or null if it's not in dictionary
+     */
+    public long[] get(String term) {
+        Cursor cursor = open();
+        if (!cursor.seek(term) || !cursor.isAt(term)) return null;
+        return new long[]{cursor.getDf(), cursor.getCf(), cursor.getPosition(), cursor.getMaxTf(),
+                cursor.getMinLength()};
+    }
+
+    /**
+     * @return cursor before the first term
+     */
+    public Cursor open() {
+        return new Cursor();
+    }
+
+    /**
+     * @param prefix of terms, in any case
+     * @return cursor before the first term that starts with prefix, that reads only the terms that do
+     */
+    public Cursor openPrefix(String prefix) {
+        Cursor cursor = new Cursor();
+        cursor.prefix = Segments.getKey(prefix).getBytes(StandardCharsets.UTF_8);
+        cursor.pending = cursor.seek(prefix);
+        return cursor;
+    }
+
+    /**
+     * @param from first term of range, in any case (null for no limit)
+     * @param to first term after range, in any case (null for no limit)
+     * @return cursor before the first term in range, that reads only the terms in range
+     */
+    public Cursor openRange(String from, String to) {
+        Cursor cursor = new Cursor();
+        if (to != null) cursor.end = Segments.getKey(to).getBytes(StandardCharsets.UTF_8);
+        if (from != null) cursor.pending = cursor.seek(from);
+        return cursor;
+    }
+
+    /**
+     * @param pattern of terms, in any case, where '*' stands for any characters and '?' for any character
+     * @return cursor before the first term that matches pattern, that reads only the terms that do. Only
+     * the terms that start with the part of pattern before its first wildcard are read to find them.
+     */
+    public Cursor openWildcard(String pattern) {
+        String key = Segments.getKey(pattern);
+        int wildcard = 0;
+        while (wildcard < key.length() && key.charAt(wildcard) != '*' && key.charAt(wildcard) != '?') wildcard++;
+        Cursor cursor = wildcard == 0 ? new Cursor() : openPrefix(key.substring(0, wildcard));
+        cursor.pattern = key;
+        return cursor;
+    }
+
+    /**
+     * @param pattern where '*' stands for any characters and '?' for any character
+     * @param text to match
+     * @return true if the whole text matches pattern
+     */
+    static boolean matches(String pattern, String text) {
+        int p = 0;
+        int t = 0;
+        int star = -1; // last '*' in pattern, that is tried on more characters when the rest doesn't match
+        int starText = 0; // first character of text that the last '*' didn't take yet
+        while (t < text.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                starText = t;
+            } else if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == text.charAt(t))) {
+                p++;
+                t++;
+            } else if (star >= 0) {
+                p = star + 1;
+                t = ++starText;
+            } else return false;
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') p++;
+        return p == pattern.length();
+    }
+
+    /**
+     * Reads the terms one by one, in order of their keys. Can move to any term with seek().
+     * A cursor of openPrefix(), openRange() or openWildcard() reads only the terms it was opened for.
+     */
+    public class Cursor implements Comparable<Cursor> {
+
+        /**
+         * position in file of the next term
+         */
+        private int position;
+        /**
+         * index of the next term
+         */
+        private int next;
+        /**
+         * bytes of the current key
+         */
+        private byte[] key = new byte[32];
+        private int keyLength;
+        /**
+         * how the term is written (see TermDictionary)
+         */
+        private int termCase;
+        /**
+         * the term, when it's not written as its key
+         */
+        private String term;
+        private long df;
+        private long cf;
+        private long postingsPosition;
+        private long maxTf;
+        private long minLength;
+        /**
+         * key that all the keys read start with (null for any)
+         */
+        private byte[] prefix;
+        /**
+         * key after the last key read (null for no limit)
+         */
+        private byte[] end;
+        /**
+         * wildcard pattern that all the keys read match (null for any)
+         */
+        private String pattern;
+        /**
+         * true if the cursor was moved to the first term to read, so the next call to next() stays on it
+         */
+        private boolean pending;
+
+        /**
+         * Moves to the next term
+         * @return false if there are no more terms
+         */
+        public boolean next() {
+            while (true) {
+                if (pending) pending = false;
+                else if (!read()) return false;
+                if ((end != null && Arrays.compareUnsigned(key, 0, keyLength, end, 0, end.length) >= 0)
+                        || (prefix != null && (keyLength < prefix.length
+                        || !Arrays.equals(key, 0, prefix.length, prefix, 0, prefix.length)))) {
+                    next = size; // the terms after it are not read either
+                    return false;
+                }
+                if (pattern == null || matches(pattern, getKey())) return true;
+            }
+        }
+
+        /**
+         * Reads the next term
+         * @return false if there are no more terms
+         */
+        private boolean read() {
+            if (next == size) return false;
+            int prefix = readVInt();
+            int suffix = readVInt();
+            if (key.length < prefix + suffix) key = Arrays.copyOf(key, Math.max(key.length * 2, prefix + suffix));
+            for (int i = 0; i < suffix; i++) key[prefix + i] = buffer.get(position++);
+            keyLength = prefix + suffix;
+            termCase = buffer.get(position++);
+            term = null;
+            if (termCase == TERM_FOLLOWS) {
+                byte[] bytes = new byte[readVInt()];
+                for (int i = 0; i < bytes.length; i++) bytes[i] = buffer.get(position++);
+                term = new String(bytes, StandardCharsets.UTF_8);
+            }
+            df = readVLong();
+            cf = readVLong();
+            postingsPosition = readVLong();
+            maxTf = readVLong();
+            minLength = readVLong();
+            next++;
+            return true;
+        }
+
+        /**
+         * Moves to the first term whose key isn't smaller than the key of a term (whatever the cursor
+         * was opened for)
+         * @param term to look for, in any case
+         * @return false if all the keys are smaller
+         */
+        public boolean seek(String term) {
+            byte[] target = Segments.getKey(term).getBytes(StandardCharsets.UTF_8);
+            // find the last block whose first key isn't larger than target
+            int low = 0;
+            int high = blockCount - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (compareFirstKey(middle, target) <= 0) low = middle;
+                else high = middle - 1;
+            }
+            if (blockCount > 0) {
+                position = buffer.getInt(blockPositions + 4 * low);
+                next = low * BLOCK_SIZE;
+            }
+            pending = false;
+            while (read()) {
+                if (Arrays.compareUnsigned(key, 0, keyLength, target, 0, target.length) >= 0) return true;
+            }
+            return false;
+        }
+
+        /**
+         * @param term in any case
+         * @return true if the current term is term
+         */
+        public boolean isAt(String term) {
+            byte[] target = Segments.getKey(term).getBytes(StandardCharsets.UTF_8);
+            return Arrays.equals(key, 0, keyLength, target, 0, target.length);
+        }
+
+        /**
+         * Compares the first key of a block with a key, straight from the file
+         * @param block index of block
+         * @param target bytes of key
+         * @return negative, zero or positive as the first key is smaller, equal or larger than target
+         */
+        private int compareFirstKey(int block, byte[] target) {
+            int saved = position;
+            position = buffer.getInt(blockPositions + 4 * block);
+            readVInt(); // prefix, always 0
+            int length = readVInt();
+            int start = position;
+            position = saved;
+            for (int i = 0; i < length && i < target.length; i++) {
+                int difference = (buffer.get(start + i) & 0xFF) - (target[i] & 0xFF);
+                if (difference != 0) return difference;
+            }
+            return length - target.length;
+        }
+
+        /**
+         * @return key of the current term (see Segments.getKey)
+         */
+        public String getKey() {
+            return new String(key, 0, keyLength, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the current term, as in dictionary
+         */
+        public String getTerm() {
+            if (termCase == TERM_IS_KEY) return getKey();
+            if (termCase == TERM_IS_LOWERCASE) return getKey().toLowerCase();
+            return term;
+        }
+
+        /**
+         * @return true if the current term is in lowercase in dictionary (it's not written as its key)
+         */
+        public boolean isLowerCase() {
+            return termCase != TERM_IS_KEY;
+        }
+
+        /**
+         * @return number of docs the current term is in
+         */
+        public long getDf() {
+            return df;
+        }
+
+        /**
+         * @return number of times the current term is in all docs
+         */
+        public long getCf() {
+            return cf;
+        }
+
+        /**
+         * @return position of the postings list of the current term
+         */
+        public long getPosition() {
+            return postingsPosition;
+        }
+
+        /**
+         * @return max tf of the current term in any doc
+         */
+        public long getMaxTf() {
+            return maxTf;
+        }
+
+        /**
+         * @return min length (number of terms) of the docs the current term is in
+         */
+        public long getMinLength() {
+            return minLength;
+        }
+
+        /**
+         * Compares the current keys of two cursors (of any dictionaries)
+         */
+        @Override
+        public int compareTo(Cursor other) {
+            return Arrays.compareUnsigned(key, 0, keyLength, other.key, 0, other.keyLength);
+        }
+
+        private int readVInt() {
+            return (int) readVLong();
+        }
+
+        private long readVLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+    /**
+     * Writes a dictionary one term at a time, so the dictionary doesn't have to be in memory to be written
+     * (only the position of every block is kept). The terms must be added in order of their keys.
+     */
+    public static class Writer implements Closeable {
+
+        private final DataOutputStream out;
+        /**
+         * position of every block written
+         */
+        private int[] blocks = new int[64];
+        /**
+         * number of terms written
+         */
+        private int size;
+        /**
+         * key of the last term written
+         */
+        private byte[] last = new byte[0];
+
+        /**
+         * Constructor
+         * @param path of dictionary file
+         */
+        public Writer(String path) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+        }
+
+        /**
+         * Writes the next term
+         * @param term to write, whose key comes after the key of the last term written
+         * @param termData {df, cf, position of postings, max tf, min doc length}
+         */
+        public void add(String term, long[] termData) throws IOException {
+            add(term, Segments.getKey(term).getBytes(StandardCharsets.UTF_8), termData);
+        }
+
+        private void add(String term, byte[] key, long[] termData) throws IOException {
+            int prefix = 0;
+            if (size % BLOCK_SIZE == 0) {
+                if (size / BLOCK_SIZE == blocks.length) blocks = Arrays.copyOf(blocks, blocks.length * 2);
+                blocks[size / BLOCK_SIZE] = out.size();
+            } else {
+                int max = Math.min(last.length, key.length);
+                while (prefix < max && last[prefix] == key[prefix]) prefix++;
+            }
+            writeVLong(out, prefix);
+            writeVLong(out, key.length - prefix);
+            out.write(key, prefix, key.length - prefix);
+            String keyString = new String(key, StandardCharsets.UTF_8);
+            if (term.equals(keyString)) out.write(TERM_IS_KEY);
+            else if (term.equals(keyString.toLowerCase())) out.write(TERM_IS_LOWERCASE);
+            else {
+                out.write(TERM_FOLLOWS);
+                byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+                writeVLong(out, termBytes.length);
+                out.write(termBytes);
+            }
+            writeVLong(out, termData[0]);
+            writeVLong(out, termData[1]);
+            writeVLong(out, termData[2]);
+            writeVLong(out, termData[3]);
+            writeVLong(out, termData[4]);
+            last = key;
+            size++;
+        }
+
+        /**
+         * Writes the positions of the blocks and the trailer, and closes the file
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                int blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+                int blockPositions = out.size();
+                for (int i = 0; i < blockCount; i++) out.writeInt(blocks[i]);
+                out.writeInt(size);
+                out.writeInt(blockCount);
+                out.writeInt(blockPositions);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * A term being written, with its key
+     */
+    private static class Entry {
+        private final byte[] key;
+        private final String term;
+        private final long[] termData;
+
+        Entry(String term, long[] termData) {
+            this.key = Segments.getKey(term).getBytes(StandardCharsets.UTF_8);
+            this.term = term;
+            this.termData = termData;
+        }
+    }
+}
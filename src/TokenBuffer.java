@@ -0,0 +1,162 @@
+import java.util.Arrays;
+
+/**
+ * Array-backed list of tokens (or terms) that is read from its head like a queue. Looking ahead any
+ * number of tokens is O(1), and the buffer can be cleared and reused for the next document without
+ * allocating anything.
+ */
+public class TokenBuffer {
+
+    /**
+     * the tokens. Only the ones between head and tail are in the buffer.
+     */
+    private String[] tokens;
+    /**
+     * position of the first token
+     */
+    private int head;
+    /**
+     * position after the last token
+     */
+    private int tail;
+
+    /**
+     * Constructor
+     */
+    public TokenBuffer() {
+        this(64);
+    }
+
+    /**
+     * Constructor
+     * @param capacity initial capacity
+     */
+    public TokenBuffer(int capacity) {
+        tokens = new String[Math.max(capacity, 4)];
+    }
+
+    /**
+     * Adds a token at the end
+     * @param token to add
+     */
+    public void add(String token) {
+        if (tail == tokens.length) grow();
+        tokens[tail++] = token;
+    }
+
+    /**
+     * @return number of tokens in buffer
+     */
+    public int size() {
+        return tail - head;
+    }
+
+    /**
+     * @return true if there are tokens in buffer
+     */
+    public boolean hasNext() {
+        return tail > head;
+    }
+
+    /**
+     * Gets the i-th token from the head
+     * @param i index of token
+     * @return the token
+     */
+    public String get(int i) {
+        return tokens[head + i];
+    }
+
+    /**
+     * Looks ahead k tokens without consuming them
+     * @param k index of token from the head (0 is the next token)
+     * @return the token, or null if there are not enough tokens
+     */
+    public String peek(int k) {
+        int i = head + k;
+        return i < tail ? tokens[i] : null;
+    }
+
+    /**
+     * Consumes the next token
+     * @return the token, or null if there are no more tokens
+     */
+    public String next() {
+        if (head == tail) return null;
+        return tokens[head++];
+    }
+
+    /**
+     * Consumes the next k tokens
+     * @param k number of tokens to consume
+     */
+    public void consume(int k) {
+        head = Math.min(head + k, tail);
+    }
+
+    /**
+     * Puts a token in front of the head, so that it's the next token
+     * @param token to put
+     */
+    public void pushFront(String token) {
+        if (head == 0) {
+            // make room at the front
+            int size = size();
+            int room = Math.max(size, 4);
+            String[] newTokens = new String[room + Math.max(tokens.length, size + room)];
+            System.arraycopy(tokens, head, newTokens, room, size);
+            tokens = newTokens;
+            head = room;
+            tail = room + size;
+        }
+        tokens[--head] = token;
+    }
+
+    /**
+     * @return position of the head, that can be given to reset() to undo the consumption of tokens
+     */
+    public int mark() {
+        return head;
+    }
+
+    /**
+     * Undoes the consumption of all tokens since mark() was called. Must not be called if tokens
+     * were pushed to the front after that.
+     * @param mark returned by mark()
+     */
+    public void reset(int mark) {
+        head = mark;
+    }
+
+    /**
+     * Removes all tokens, keeping the capacity of the buffer
+     */
+    public void clear() {
+        Arrays.fill(tokens, 0, tail, null);
+        head = 0;
+        tail = 0;
+    }
+
+    /**
+     * @return a new buffer with the tokens of this one (from the head), so this one can be reused
+     */
+    public TokenBuffer copy() {
+        TokenBuffer copy = new TokenBuffer(0);
+        copy.tokens = Arrays.copyOfRange(tokens, head, Math.max(tail, head + 4));
+        copy.tail = size();
+        return copy;
+    }
+
+    private void grow() {
+        if (head > tokens.length / 2) {
+            // reuse the room of consumed tokens
+            int size = size();
+            System.arraycopy(tokens, head, tokens, 0, size);
+            Arrays.fill(tokens, size, tail, null);
+            head = 0;
+            tail = size;
+        } else {
+            tokens = Arrays.copyOf(tokens, tokens.length * 2);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/**
+ * Numeric shape of a single token, found in one pass over its characters: whether it is an
+ * integer, a decimal or a fraction, whether it has a '$' prefix or a '%', "am" or "pm" suffix,
+ * whether it looks like an hour (h:mm), and the value of the number. The parsing rules look at
+ * the shape instead of calling Float.parseFloat() and Integer.parseInt() on the same token again
+ * and again and catching their NumberFormatExceptions.
+ * The shape is reused: scan() overwrites everything found for the previous token.
+ */
+public class TokenShape {
+
+    /**
+     * token has no suffix
+     */
+    public static final int NO_SUFFIX = 0;
+    /**
+     * token ends with '%'
+     */
+    public static final int PERCENT = 1;
+    /**
+     * token ends with "am" (ignoring case)
+     */
+    public static final int AM = 2;
+    /**
+     * token ends with "pm" (ignoring case)
+     */
+    public static final int PM = 3;
+
+    /**
+     * true if token starts with '$'
+     */
+    private boolean dollar;
+    /**
+     * one of NO_SUFFIX, PERCENT, AM or PM
+     */
+    private int suffix;
+    /**
+     * where the number starts in token (after the prefix)
+     */
+    private int start;
+    /**
+     * where the number ends in token (before the suffix)
+     */
+    private int end;
+    /**
+     * true if the part between start and end is accepted by Float.parseFloat()
+     */
+    private boolean number;
+    /**
+     * true if the part between start and end is accepted by Integer.parseInt()
+     */
+    private boolean integer;
+    /**
+     * value of the number, if number is true
+     */
+    private float value;
+    /**
+     * value of the integer, if integer is true
+     */
+    private int intValue;
+    /**
+     * true if the whole token is number/number (anything after a second '/' is ignored)
+     */
+    private boolean fraction;
+    /**
+     * true if the number between start and end is hours:minutes (anything after a second ':' is ignored)
+     */
+    private boolean time;
+    /**
+     * hours, if time is true
+     */
+    private int hours;
+    /**
+     * minutes, if time is true
+     */
+    private int minutes;
+
+    /**
+     * Finds the shape of a token
+     * @param token to scan
+     */
+    public void scan(String token) {
+        int length = token.length();
+        dollar = length > 0 && token.charAt(0) == '$';
+        start = dollar ? 1 : 0;
+        end = length;
+        suffix = NO_SUFFIX;
+        if (length > start && token.charAt(length - 1) == '%') {
+            suffix = PERCENT;
+            end = length - 1;
+        } else if (length > 2 && (token.charAt(length - 1) | 0x20) == 'm') {
+            char letter = (char) (token.charAt(length - 2) | 0x20);
+            if (letter == 'a') suffix = AM;
+            else if (letter == 'p') suffix = PM;
+            if (suffix != NO_SUFFIX) end = length - 2;
+        }
+
+        // the number
+        integer = isInteger(token, start, end);
+        if (integer) intValue = parseInteger(token, start, end);
+        number = isFloat(token, start, end);
+        if (number) value = integer ? intValue : Float.parseFloat(token.substring(start, end));
+
+        // fraction
+        fraction = isFraction(token);
+
+        // time
+        time = false;
+        int colon = token.indexOf(':', start);
+        if (colon >= 0 && colon < end && end - start > 3) {
+            int nextColon = token.indexOf(':', colon + 1);
+            int minutesEnd = nextColon < 0 || nextColon > end ? end : nextColon;
+            if (isInteger(token, start, colon) && isInteger(token, colon + 1, minutesEnd)) {
+                time = true;
+                hours = parseInteger(token, start, colon);
+                minutes = parseInteger(token, colon + 1, minutesEnd);
+            }
+        }
+    }
+
+    /**
+     * @return true if token is a number with no prefix or suffix
+     */
+    public boolean isNumber() {
+        return number && !dollar && suffix == NO_SUFFIX;
+    }
+
+    /**
+     * @return true if token is an integer with no prefix or suffix
+     */
+    public boolean isInteger() {
+        return integer && !dollar && suffix == NO_SUFFIX;
+    }
+
+    /**
+     * @return true if token is number/number
+     */
+    public boolean isFraction() {
+        return fraction;
+    }
+
+    /**
+     * @return true if token is '$' followed by a number
+     */
+    public boolean isDollarNumber() {
+        return number && dollar && suffix == NO_SUFFIX;
+    }
+
+    /**
+     * @return true if token is a number followed by '%'
+     */
+    public boolean isPercentNumber() {
+        return number && !dollar && suffix == PERCENT;
+    }
+
+    /**
+     * @return true if token is hours:minutes, maybe followed by "am" or "pm"
+     */
+    public boolean isTime() {
+        return time && !dollar && suffix != PERCENT;
+    }
+
+    /**
+     * @return true if token is an integer followed by "am" or "pm", or with no suffix at all
+     */
+    public boolean isHour() {
+        return integer && !dollar && suffix != PERCENT;
+    }
+
+    /**
+     * @return suffix of token (NO_SUFFIX, PERCENT, AM or PM)
+     */
+    public int getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * @return value of the number in token
+     */
+    public float getValue() {
+        return value;
+    }
+
+    /**
+     * @return value of the integer in token
+     */
+    public int getIntValue() {
+        return intValue;
+    }
+
+    /**
+     * @return hours, if token is a time
+     */
+    public int getHours() {
+        return hours;
+    }
+
+    /**
+     * @return minutes, if token is a time
+     */
+    public int getMinutes() {
+        return minutes;
+    }
+
+    /**
+     * Checks if a string is number/number, where the numbers are accepted by Float.parseFloat().
+     * Anything after a second '/' is ignored (so 12/5/94 is a fraction).
+     * @param string to check
+     * @return true if it's a fraction
+     */
+    public static boolean isFraction(CharSequence string) {
+        int length = string.length();
+        int slash = -1;
+        for (int i = 0; i < length && slash < 0; i++) if (string.charAt(i) == '/') slash = i;
+        if (slash < 0 || !isFloat(string, 0, slash)) return false;
+        int nextSlash = slash + 1;
+        while (nextSlash < length && string.charAt(nextSlash) != '/') nextSlash++;
+        return isFloat(string, slash + 1, nextSlash);
+    }
+
+    /**
+     * Checks if a part of a string is accepted by Integer.parseInt()
+     * @param string holding the part
+     * @param start of part
+     * @param end of part
+     * @return true if it's an integer that fits in an int
+     */
+    public static boolean isInteger(CharSequence string, int start, int end) {
+        boolean negative = start < end && string.charAt(start) == '-';
+        if (negative || (start < end && string.charAt(start) == '+')) start++;
+        if (start >= end) return false;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(string.charAt(i), 10);
+            if (digit < 0) return false;
+            value = value * 10 + digit;
+            if (value > 2147483648L) return false;
+        }
+        return value < 2147483648L || negative;
+    }
+
+    /**
+     * Parses a part of a string that isInteger() accepted
+     * @param string holding the part
+     * @param start of part
+     * @param end of part
+     * @return the integer
+     */
+    public static int parseInteger(CharSequence string, int start, int end) {
+        boolean negative = string.charAt(start) == '-';
+        if (negative || string.charAt(start) == '+') start++;
+        long value = 0;
+        for (int i = start; i < end; i++) value = value * 10 + Character.digit(string.charAt(i), 10);
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Checks if a part of a string is accepted by Float.parseFloat(), that is: a decimal number with
+     * optional sign, exponent and type suffix, NaN or Infinity, surrounded by optional whitespace.
+     * @param string holding the part
+     * @param start of part
+     * @param end of part
+     * @return true if it's a number
+     */
+    public static boolean isFloat(CharSequence string, int start, int end) {
+        while (start < end && string.charAt(start) <= ' ') start++;
+        while (end > start && string.charAt(end - 1) <= ' ') end--;
+        int i = start;
+        if (i < end && (string.charAt(i) == '-' || string.charAt(i) == '+')) i++;
+        if (i >= end) return false;
+        char first = string.charAt(i);
+        if (first == 'N') return regionIs(string, i, end, "NaN");
+        if (first == 'I') return regionIs(string, i, end, "Infinity");
+        if (first == '0' && i + 1 < end && (string.charAt(i + 1) | 0x20) == 'x') return isHexFloat(string, start, end);
+        int digits = 0;
+        while (i < end && isDigit(string.charAt(i))) { i++; digits++; }
+        if (i < end && string.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(string.charAt(i))) { i++; digits++; }
+        }
+        if (digits == 0) return false;
+        if (i < end && (string.charAt(i) | 0x20) == 'e') {
+            i++;
+            if (i < end && (string.charAt(i) == '-' || string.charAt(i) == '+')) i++;
+            int exponentDigits = 0;
+            while (i < end && isDigit(string.charAt(i))) { i++; exponentDigits++; }
+            if (exponentDigits == 0) return false;
+        }
+        if (i < end) {
+            char type = (char) (string.charAt(i) | 0x20);
+            if (type == 'f' || type == 'd') i++;
+        }
+        return i == end;
+    }
+
+    private static boolean isDigit(char character) {
+        return character >= '0' && character <= '9';
+    }
+
+    private static boolean regionIs(CharSequence string, int start, int end, String word) {
+        if (end - start != word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (string.charAt(start + i) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hexadecimal floats (like 0x1p3) never show up in the corpus, so they are left to Float.parseFloat().
+     */
+    private static boolean isHexFloat(CharSequence string, int start, int end) {
+        try {
+            Float.parseFloat(string.subSequence(start, end).toString());
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
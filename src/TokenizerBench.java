@@ -0,0 +1,209 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares the tokenizer of Parse with the one it replaced, which built every token in a new StringBuilder,
+ * trimmed it with deleteCharAt, looked its characters up in sets of Characters and lowercased it to look
+ * for stop words. The TEXT of every doc of a corpus is tokenized both ways, and the tokens must be the same.
+ * Then both ways are timed over all the texts, and the best of some rounds is printed with the bytes
+ * allocated per token. Exits with status 1 if any doc's tokens differ.
+ * The texts are held in memory, so for a big corpus give a directory with a part of it.
+ *
+ * Usage: TokenizerBench corpusPath [rounds]
+ * corpusPath is a corpus directory with its stop_words.txt, like the ones indexed. rounds is the number of
+ * times both ways are timed (5 if not given).
+ */
+public class TokenizerBench {
+
+    /**
+     * most differences printed
+     */
+    private static final int MAX_PRINTED = 20;
+
+    public static void main(String[] args) throws IOException {
+        String corpusPath = args[0];
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String stopWordsName = "stop_words.txt";
+        CharArraySet stopWords = Indexer.getStopWords(corpusPath + "\\" + stopWordsName);
+        Parse parse = new Parse(stopWords, Cities.get_cities_dictionary(), new ConcurrentHashMap<>(),
+                Indexer.getMonths(), new StemCache(1 << 12), Indexer.getStopSuffixes(), Indexer.getStopPrefixes(),
+                false);
+        StringBuilderTokenizer old = new StringBuilderTokenizer(corpusPath + "\\" + stopWordsName,
+                Indexer.getStopPrefixes(), Indexer.getStopSuffixes());
+
+        // get the TEXT of every doc
+        List<String> filePaths = new ArrayList<>();
+        Indexer.walk(corpusPath, filePaths);
+        filePaths.removeIf(filePath -> new File(filePath).getName().equals(stopWordsName));
+        Collections.sort(filePaths);
+        TrecScanner scanner = new TrecScanner();
+        List<String> texts = new ArrayList<>();
+        long chars = 0;
+        for (String filePath : filePaths) {
+            ReadFile file = new ReadFile(filePath);
+            CharSequence docString;
+            while ((docString = file.nextDoc()) != null) {
+                if (!scanner.scan(docString)) continue; // the tokenizers don't read the tags
+                String text = scanner.getText().toString();
+                texts.add(text);
+                chars += text.length();
+            }
+        }
+
+        // compare the tokens
+        int different = 0;
+        long tokens = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            List<String> oldTokens = old.tokenize(texts.get(i));
+            TokenBuffer newTokens = parse.getTokens(texts.get(i));
+            tokens += oldTokens.size();
+            String difference = compare(newTokens, oldTokens);
+            if (difference == null) continue;
+            if (different++ < MAX_PRINTED) System.out.println("doc " + i + ": " + difference);
+        }
+        System.out.println(texts.size() + " docs, " + tokens + " tokens, " + different + " different");
+
+        // time both ways
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        double oldTime = Double.MAX_VALUE;
+        double newTime = Double.MAX_VALUE;
+        long oldBytes = 0;
+        long newBytes = 0;
+        for (int round = 0; round < rounds; round++) {
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            for (String text : texts) old.tokenize(text);
+            oldTime = Math.min(oldTime, (System.nanoTime() - start) / 1e6);
+            oldBytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            bytes = threads.getThreadAllocatedBytes(thread);
+            start = System.nanoTime();
+            for (String text : texts) parse.getTokens(text);
+            newTime = Math.min(newTime, (System.nanoTime() - start) / 1e6);
+            newBytes = threads.getThreadAllocatedBytes(thread) - bytes;
+        }
+        System.out.println("tokenizer      ms  MB of text/s  bytes/token");
+        System.out.println(String.format("old     %9.1f %13.1f %12.1f", oldTime, chars / oldTime / 1e3,
+                (double) oldBytes / tokens));
+        System.out.println(String.format("new     %9.1f %13.1f %12.1f", newTime, chars / newTime / 1e3,
+                (double) newBytes / tokens));
+        System.out.println(String.format("speedup %9.1fx", oldTime / newTime));
+        if (different > 0) System.exit(1);
+    }
+
+    /**
+     * @param newTokens tokens of the tokenizer of Parse
+     * @param oldTokens tokens of the old tokenizer
+     * @return the first token where they differ, with both, or null if they are the same
+     */
+    private static String compare(TokenBuffer newTokens, List<String> oldTokens) {
+        if (newTokens.size() != oldTokens.size()) {
+            return "number of tokens " + newTokens.size() + " / " + oldTokens.size();
+        }
+        for (int i = 0; i < oldTokens.size(); i++) {
+            if (!newTokens.get(i).equals(oldTokens.get(i))) {
+                return "token " + i + " " + newTokens.get(i) + " / " + oldTokens.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The tokenizer that Parse had before it tokenized over offsets with lookup tables
+     */
+    private static class StringBuilderTokenizer {
+
+        /**
+         * stop-words set
+         */
+        private HashSet<String> stopWords = new HashSet<>();
+        /**
+         * prefixes to remove
+         */
+        private HashSet<Character> stopPrefixes = new HashSet<>();
+        /**
+         * suffixes to remove
+         */
+        private HashSet<Character> stopSuffixes = new HashSet<>();
+
+        /**
+         * Constructor
+         * @param stopWordsPath path of stop words file
+         * @param stopPrefixes lookup table of prefixes to remove
+         * @param stopSuffixes lookup table of suffixes to remove
+         */
+        StringBuilderTokenizer(String stopWordsPath, boolean[] stopPrefixes, boolean[] stopSuffixes) throws IOException {
+            for (String line : Files.readAllLines(new File(stopWordsPath).toPath())) {
+                stopWords.add(line.trim());
+            }
+            for (char character = 0; character < stopPrefixes.length; character++) {
+                if (stopPrefixes[character]) this.stopPrefixes.add(character);
+            }
+            for (char character = 0; character < stopSuffixes.length; character++) {
+                if (stopSuffixes[character]) this.stopSuffixes.add(character);
+            }
+        }
+
+        /**
+         * @param text of doc
+         * @return its tokens
+         */
+        List<String> tokenize(String text) {
+            LinkedList<String> tokens = new LinkedList<>();
+            for (String line : text.split("\n")) tokenize(line, tokens);
+            return tokens;
+        }
+
+        private void tokenize(String line, LinkedList<String> tokens) {
+            StringBuilder stringBuilder = new StringBuilder();
+            line = line.trim().concat(" "); // Add one space at end to ensure last token is taken
+            int length = line.length();
+            for (int i = 0; i < length; i++) {
+                char character = line.charAt(i);
+                switch (character) {
+                    case '!': case '@': case ';': case '+': case '?': case '"': case '*': case '(': case ')':
+                    case '<': case '>': case '{': case '}': case '=': case '[': case ']': case '#': case '|':
+                    case '&': case ',': case '`':
+                        break;
+                    case ' ': {
+                        if (stringBuilder.length() > 0) {
+                            try {
+                                char firstChar = stringBuilder.charAt(0);
+                                while (stopPrefixes.contains(firstChar)) {
+                                    stringBuilder.deleteCharAt(0);
+                                    firstChar = stringBuilder.charAt(0);
+                                }
+                                char lastChar = stringBuilder.charAt(stringBuilder.length() - 1);
+                                while (stopSuffixes.contains(lastChar)) {
+                                    stringBuilder.deleteCharAt(stringBuilder.length() - 1);
+                                    lastChar = stringBuilder.charAt(stringBuilder.length() - 1);
+                                }
+                                String token = stringBuilder.toString().toLowerCase();
+                                if (token.length() > 0) {
+                                    // Do not stop at the following stop words!
+                                    if (token.equals("between")
+                                            || token.equals("and")
+                                            || token.equals("m")
+                                            || token.equals("am")
+                                            || !stopWords.contains(token)) {
+                                        tokens.add(stringBuilder.toString());
+                                    }
+                                }
+                            } catch (NullPointerException | StringIndexOutOfBoundsException ignored) {
+                            }
+                            stringBuilder = new StringBuilder();
+                        }
+                    }
+                    break;
+                    default:
+                        stringBuilder.append(character);
+                }
+            }
+        }
+    }
+}
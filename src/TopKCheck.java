@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Checks that skipping the docs that can't get into the best k (see Searcher) finds the same docs as
+ * scoring every doc, and times both. Queries of 1 to MAX_QUERY_TERMS terms are made of random terms of the
+ * index, mostly frequent ones (the ones pruning is for), and some of them are restricted to a language.
+ * Every query is searched both ways for every k in KS, and the docs and their scores must be the same.
+ * Prints every query whose results differ, and the time of both ways by number of terms, and exits with
+ * status 1 if any differ.
+ *
+ * Usage: TopKCheck indexPath stopWordsPath [stem] [queries]
+ * With "stem", the index was created with stemming. queries is the number of queries of every length
+ * (100 if not given).
+ */
+public class TopKCheck {
+
+    /**
+     * most terms in a query
+     */
+    private static final int MAX_QUERY_TERMS = 8;
+    /**
+     * numbers of docs asked for
+     */
+    private static final int[] KS = {1, 10, 100};
+    /**
+     * most differences printed
+     */
+    private static final int MAX_PRINTED = 20;
+
+    public static void main(String[] args) throws IOException {
+        String indexPath = args[0];
+        boolean useStemming = args.length > 2 && args[2].equals("stem");
+        int queryCount = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        Searcher searcher = new Searcher(indexPath, args[1], useStemming);
+        Segments segments = Segments.read(indexPath);
+
+        // the terms that are found again when they are searched, and the frequent ones among them
+        List<String> terms = new ArrayList<>();
+        List<Long> dfs = new ArrayList<>();
+        segments.forEachTerm((term, termData) -> {
+            terms.add(term);
+            dfs.add(termData[0]);
+        });
+        List<String> all = new ArrayList<>();
+        List<String> frequent = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.get(i);
+            if (!searcher.normalize(term).equals(Segments.getKey(term))) continue;
+            all.add(term);
+            if (dfs.get(i) * 100 >= searcher.getDocumentCount()) frequent.add(term); // in 1% of docs or more
+        }
+        if (frequent.isEmpty()) frequent = all;
+        List<String> languages = new ArrayList<>(segments.getLanguages());
+        System.out.println(all.size() + " terms, " + frequent.size() + " frequent, " + languages.size() + " languages");
+
+        // make the queries, a quarter of them restricted to a language
+        Random random = new Random(1);
+        List<List<String>> queries = new ArrayList<>();
+        List<Set<String>> queryLanguages = new ArrayList<>();
+        for (int length = 1; length <= MAX_QUERY_TERMS; length++) {
+            for (int i = 0; i < queryCount; i++) {
+                List<String> query = new ArrayList<>();
+                for (int j = 0; j < length; j++) {
+                    List<String> from = random.nextInt(4) == 0 ? all : frequent;
+                    query.add(from.get(random.nextInt(from.size())));
+                }
+                queries.add(query);
+                boolean restricted = !languages.isEmpty() && random.nextInt(4) == 0;
+                queryLanguages.add(restricted
+                        ? Collections.singleton(languages.get(random.nextInt(languages.size()))) : null);
+            }
+        }
+
+        // compare the results, which also warms up both ways before they are timed
+        int different = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            String query = String.join(" ", queries.get(i));
+            for (int k : KS) {
+                String difference = compare(searcher.search(query, queryLanguages.get(i), null, k, true),
+                        searcher.search(query, queryLanguages.get(i), null, k, false));
+                if (difference == null) continue;
+                if (different++ < MAX_PRINTED) System.out.println("\"" + query + "\" k=" + k + ": " + difference);
+            }
+        }
+        System.out.println(queries.size() * KS.length + " searches, " + different + " different");
+
+        // time both ways, by number of terms
+        System.out.println("terms  k  exhaustive ms  pruned ms  speedup");
+        for (int length = 1; length <= MAX_QUERY_TERMS; length++) {
+            int from = (length - 1) * queryCount;
+            List<List<String>> sameLength = queries.subList(from, from + queryCount);
+            List<Set<String>> sameLengthLanguages = queryLanguages.subList(from, from + queryCount);
+            for (int k : KS) {
+                double exhaustive = time(searcher, sameLength, sameLengthLanguages, k, false);
+                double pruned = time(searcher, sameLength, sameLengthLanguages, k, true);
+                System.out.println(String.format("%5d %3d %14.3f %10.3f %8.1fx", length, k, exhaustive, pruned,
+                        exhaustive / pruned));
+            }
+        }
+        if (different > 0) System.exit(1);
+    }
+
+    /**
+     * @param searcher of index
+     * @param queries to search
+     * @param languages of every query (null for any)
+     * @param k number of docs asked for
+     * @param prune true to skip the docs that can't get into the best k, false to score every doc
+     * @return average milliseconds of a search
+     */
+    private static double time(Searcher searcher, List<List<String>> queries, List<Set<String>> languages, int k,
+                               boolean prune) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < queries.size(); i++) {
+            searcher.search(String.join(" ", queries.get(i)), languages.get(i), null, k, prune);
+        }
+        return (System.nanoTime() - start) / 1e6 / queries.size();
+    }
+
+    /**
+     * @param pruned results found skipping the docs that can't get into the best k
+     * @param exhaustive results found scoring every doc
+     * @return the first result where they differ, with both, or null if they are the same
+     */
+    private static String compare(List<Searcher.Result> pruned, List<Searcher.Result> exhaustive) {
+        if (pruned.size() != exhaustive.size()) return "number of docs " + pruned.size() + " / " + exhaustive.size();
+        for (int i = 0; i < pruned.size(); i++) {
+            Searcher.Result a = pruned.get(i);
+            Searcher.Result b = exhaustive.get(i);
+            if (!a.getDocNo().equals(b.getDocNo()) || a.getScore() != b.getScore()) {
+                return "doc " + i + " " + a.getDocNo() + " " + a.getScore() + " / " + b.getDocNo() + " " + b.getScore();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,493 @@
+import org.jsoup.nodes.Entities;
+
+import java.util.Arrays;
+
+/**
+ * Single-pass scanner for the tags of a TREC document (FBIS, LA Times, FT). Instead of building a DOM,
+ * it walks the text of the doc once and collects the text of the tags the Parse needs: DOCNO,
+ * F P=104 (city), F P=105 (language), TI (title), DATE1, DATE/P and TEXT.
+ * The text of every tag is returned the same way Jsoup's Elements.text() would return it, that is
+ * with whitespace collapsed and entities decoded. If the doc contains markup that the scanner doesn't
+ * understand, scan returns false and the doc should be parsed with Jsoup instead.
+ */
+public class TrecScanner {
+
+    private static final int DOCNO = 0;
+    private static final int TI = 1;
+    private static final int DATE1 = 2;
+    private static final int DATE = 3;
+    private static final int DATE_P = 4;
+    private static final int TEXT = 5;
+    private static final int CITY = 6;
+    private static final int LANGUAGE = 7;
+    private static final int KINDS = 8;
+
+    /**
+     * for every kind of tag, the text of each of the tags of that kind found in doc, in order
+     */
+    private final TagText[][] tagTexts = new TagText[KINDS][];
+    /**
+     * for every kind of tag, number of tags of that kind found in doc
+     */
+    private final int[] tagCounts = new int[KINDS];
+    /**
+     * open tags that we collect text from
+     */
+    private TagText[] openTexts = new TagText[8];
+    /**
+     * depth in the stack of each of the open tags that we collect text from
+     */
+    private int[] openDepths = new int[8];
+    /**
+     * number of open tags that we collect text from
+     */
+    private int openCount;
+    /**
+     * used to join the text of many tags of the same kind
+     */
+    private final StringBuilder joined = new StringBuilder();
+    /**
+     * the doc being scanned
+     */
+    private CharSequence doc;
+    /**
+     * length of doc
+     */
+    private int length;
+    /**
+     * stack of open tags: where the name of each tag starts and ends in doc
+     */
+    private int[] nameStarts = new int[32];
+    private int[] nameEnds = new int[32];
+    /**
+     * for every tag in the stack, true if it's a DATE tag
+     */
+    private boolean[] dateTags = new boolean[32];
+    /**
+     * number of open DATE tags
+     */
+    private int openDates;
+    /**
+     * number of open tags
+     */
+    private int depth;
+    /**
+     * value of the P attribute of the last tag read
+     */
+    private int pAttribute;
+
+    /**
+     * Constructor
+     */
+    public TrecScanner() {
+        for (int kind = 0; kind < KINDS; kind++) tagTexts[kind] = new TagText[1];
+    }
+
+    /**
+     * Scans a doc, collecting the text of its tags.
+     * @param doc text of doc (contains all tags between <DOC> and </DOC> including that tag)
+     * @return true if succeeded, false if doc has markup that must be parsed by Jsoup
+     */
+    public boolean scan(CharSequence doc) {
+        this.doc = doc;
+        this.length = doc.length();
+        this.depth = 0;
+        this.openCount = 0;
+        this.openDates = 0;
+        for (int kind = 0; kind < KINDS; kind++) tagCounts[kind] = 0;
+        int i = 0;
+        while (i < length) {
+            char character = doc.charAt(i);
+            if (character == '<') {
+                i = readMarkup(i);
+                if (i < 0) return false;
+            } else if (character == '&') {
+                i = readEntity(i);
+                if (i < 0) return false;
+            } else {
+                append(character);
+                i++;
+            }
+        }
+        this.doc = null;
+        return true;
+    }
+
+    public String getDocNo() { return getJoinedText(DOCNO).toString(); }
+
+    public String getTitle() { return getJoinedText(TI).toString(); }
+
+    public String getDate1() { return getJoinedText(DATE1).toString(); }
+
+    public String getDate() { return getJoinedText(DATE_P).toString(); }
+
+    public String getCity() { return getLastText(CITY); }
+
+    public String getLanguage() { return getLastText(LANGUAGE); }
+
+    /**
+     * Returns the text inside the TEXT tags. The returned sequence is reused by the next scan.
+     * @return text of doc
+     */
+    public CharSequence getText() { return getJoinedText(TEXT); }
+
+    /**
+     * Returns the text of all the tags of a kind, joined by spaces
+     * @param kind of tag
+     * @return the text
+     */
+    private CharSequence getJoinedText(int kind) {
+        int count = tagCounts[kind];
+        if (count == 0) return "";
+        if (count == 1) return tagTexts[kind][0].text;
+        joined.setLength(0);
+        for (int i = 0; i < count; i++) {
+            if (joined.length() > 0) joined.append(' ');
+            joined.append(tagTexts[kind][i].text);
+        }
+        return joined;
+    }
+
+    /**
+     * Returns the text of the last tag of a kind
+     * @param kind of tag
+     * @return the text
+     */
+    private String getLastText(int kind) {
+        int count = tagCounts[kind];
+        if (count == 0) return "";
+        return tagTexts[kind][count - 1].toString();
+    }
+
+    /**
+     * Adds a character of text to all the open tags that we collect text from
+     * @param character to add
+     */
+    private void append(char character) {
+        for (int i = 0; i < openCount; i++) openTexts[i].append(character);
+    }
+
+    /**
+     * Reads a tag, end tag or comment starting at position i.
+     * @param i position of the '<'
+     * @return position after the markup, or -1 if the markup is not understood
+     */
+    private int readMarkup(int i) {
+        if (i + 1 >= length) {
+            append('<');
+            return i + 1;
+        }
+        char next = doc.charAt(i + 1);
+        if (isLetter(next)) return readStartTag(i + 1);
+        if (next == '/') return readEndTag(i + 2);
+        if (next == '!') return readComment(i);
+        if (next == '?') return -1;
+        // not a tag, just a '<' in text
+        append('<');
+        return i + 1;
+    }
+
+    /**
+     * Reads a start tag and opens it.
+     * @param i position of the tag's name
+     * @return position after the tag, or -1 if the tag is not understood
+     */
+    private int readStartTag(int i) {
+        int nameStart = i;
+        while (i < length && isNameChar(doc.charAt(i))) i++;
+        int nameEnd = i;
+        pAttribute = -1;
+        // attributes
+        while (true) {
+            int afterSpace = skipSpaces(i);
+            if (afterSpace >= length) return -1;
+            char character = doc.charAt(afterSpace);
+            if (character == '>') {
+                openTag(nameStart, nameEnd);
+                return afterSpace + 1;
+            }
+            if (character == '/') {
+                if (afterSpace + 1 >= length || doc.charAt(afterSpace + 1) != '>') return -1;
+                // empty tag
+                openTag(nameStart, nameEnd);
+                closeTags(depth - 1);
+                return afterSpace + 2;
+            }
+            if (afterSpace == i) return -1; // attributes must be separated by spaces
+            i = readAttribute(afterSpace);
+            if (i < 0) return -1;
+        }
+    }
+
+    /**
+     * Reads an attribute of a tag. Remembers the value of the P attribute.
+     * @param i position of the attribute's name
+     * @return position after the attribute, or -1 if the attribute is not understood
+     */
+    private int readAttribute(int i) {
+        int nameStart = i;
+        while (i < length && isNameChar(doc.charAt(i))) i++;
+        if (i == nameStart) return -1;
+        boolean isP = i - nameStart == 1 && doc.charAt(nameStart) == 'P';
+        int afterSpace = skipSpaces(i);
+        if (afterSpace >= length || doc.charAt(afterSpace) != '=') return i; // attribute without value
+        i = skipSpaces(afterSpace + 1);
+        if (i >= length) return -1;
+        int valueStart, valueEnd;
+        char quote = doc.charAt(i);
+        if (quote == '"' || quote == '\'') {
+            valueStart = ++i;
+            while (i < length && doc.charAt(i) != quote) {
+                char character = doc.charAt(i);
+                if (character == '<' || character == '>' || character == '&') return -1;
+                i++;
+            }
+            if (i >= length) return -1;
+            valueEnd = i++;
+        } else {
+            valueStart = i;
+            while (i < length && isValueChar(doc.charAt(i))) i++;
+            valueEnd = i;
+            if (valueStart == valueEnd) return -1;
+            if (i < length && !isSpace(doc.charAt(i)) && doc.charAt(i) != '>' && doc.charAt(i) != '/') return -1;
+        }
+        if (isP) pAttribute = parseNumber(valueStart, valueEnd);
+        return i;
+    }
+
+    /**
+     * Reads an end tag and closes it, together with all tags that were opened after it.
+     * If there is no open tag with that name, the end tag is ignored.
+     * @param i position of the tag's name
+     * @return position after the tag, or -1 if the tag is not understood
+     */
+    private int readEndTag(int i) {
+        int nameStart = i;
+        if (i >= length || !isLetter(doc.charAt(i))) return -1;
+        while (i < length && isNameChar(doc.charAt(i))) i++;
+        int nameEnd = i;
+        if (i >= length || doc.charAt(i) != '>') return -1;
+        for (int d = depth - 1; d >= 0; d--) {
+            if (regionEquals(nameStarts[d], nameEnds[d], nameStart, nameEnd)) {
+                closeTags(d);
+                break;
+            }
+        }
+        return i + 1;
+    }
+
+    /**
+     * Skips a comment.
+     * @param i position of the '<'
+     * @return position after the comment, or -1 if it is not a comment
+     */
+    private int readComment(int i) {
+        if (!startsWith(i, "<!--")) return -1;
+        for (int j = i + 4; j + 2 < length; j++) {
+            if (doc.charAt(j) == '-' && doc.charAt(j + 1) == '-' && doc.charAt(j + 2) == '>') return j + 3;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a named character reference and adds its characters to text. If it's not a known entity,
+     * the '&' is added as is.
+     * @param i position of the '&'
+     * @return position after the reference, or -1 if it is a numeric reference
+     */
+    private int readEntity(int i) {
+        int nameStart = i + 1;
+        int j = nameStart;
+        if (j < length && doc.charAt(j) == '#') return -1;
+        while (j < length && isLetter(doc.charAt(j))) j++;
+        while (j < length && doc.charAt(j) >= '0' && doc.charAt(j) <= '9') j++;
+        if (j == nameStart) {
+            append('&');
+            return i + 1;
+        }
+        String name = doc.subSequence(nameStart, j).toString();
+        boolean hasSemicolon = j < length && doc.charAt(j) == ';';
+        if (!(Entities.isBaseNamedEntity(name) || (hasSemicolon && Entities.isNamedEntity(name)))) {
+            append('&');
+            return i + 1;
+        }
+        String value = Entities.getByName(name);
+        for (int k = 0; k < value.length(); k++) append(value.charAt(k));
+        return hasSemicolon ? j + 1 : j;
+    }
+
+    /**
+     * Pushes a tag into the stack of open tags, and starts collecting its text if it's one
+     * of the tags we need.
+     * @param nameStart position where tag's name starts
+     * @param nameEnd position where tag's name ends
+     */
+    private void openTag(int nameStart, int nameEnd) {
+        if (depth == nameStarts.length) {
+            nameStarts = Arrays.copyOf(nameStarts, depth * 2);
+            nameEnds = Arrays.copyOf(nameEnds, depth * 2);
+            dateTags = Arrays.copyOf(dateTags, depth * 2);
+        }
+        int kind = getKind(nameStart, nameEnd);
+        if (kind >= 0) {
+            // start collecting the text of this tag
+            TagText[] texts = tagTexts[kind];
+            int count = tagCounts[kind];
+            if (count == texts.length) texts = tagTexts[kind] = Arrays.copyOf(texts, count * 2);
+            if (texts[count] == null) texts[count] = new TagText();
+            TagText tagText = texts[count];
+            tagText.clear();
+            tagCounts[kind]++;
+            if (openCount == openTexts.length) {
+                openTexts = Arrays.copyOf(openTexts, openCount * 2);
+                openDepths = Arrays.copyOf(openDepths, openCount * 2);
+            }
+            openTexts[openCount] = tagText;
+            openDepths[openCount] = depth;
+            openCount++;
+        }
+        dateTags[depth] = kind == DATE;
+        if (kind == DATE) openDates++;
+        nameStarts[depth] = nameStart;
+        nameEnds[depth] = nameEnd;
+        depth++;
+    }
+
+    /**
+     * Pops from the stack of open tags all the tags from newDepth and up
+     * @param newDepth depth of the stack after closing the tags
+     */
+    private void closeTags(int newDepth) {
+        while (openCount > 0 && openDepths[openCount - 1] >= newDepth) openCount--;
+        for (int d = newDepth; d < depth; d++) {
+            if (dateTags[d]) openDates--;
+        }
+        depth = newDepth;
+    }
+
+    /**
+     * Gets the kind of a tag (tag names are not case sensitive).
+     * @param nameStart position where tag's name starts
+     * @param nameEnd position where tag's name ends
+     * @return kind of tag, or -1 if it's not a tag we need
+     */
+    private int getKind(int nameStart, int nameEnd) {
+        switch (nameEnd - nameStart) {
+            case 1:
+                if (!nameIs(nameStart, "F")) {
+                    if (nameIs(nameStart, "P") && openDates > 0) return DATE_P;
+                    return -1;
+                }
+                if (pAttribute == 104) return CITY;
+                if (pAttribute == 105) return LANGUAGE;
+                return -1;
+            case 2:
+                return nameIs(nameStart, "TI") ? TI : -1;
+            case 4:
+                if (nameIs(nameStart, "TEXT")) return TEXT;
+                if (nameIs(nameStart, "DATE")) return DATE;
+                return -1;
+            case 5:
+                if (nameIs(nameStart, "DOCNO")) return DOCNO;
+                if (nameIs(nameStart, "DATE1")) return DATE1;
+                return -1;
+            default:
+                return -1;
+        }
+    }
+
+    private boolean nameIs(int start, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toUpperCase(doc.charAt(start + i)) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private boolean regionEquals(int start1, int end1, int start2, int end2) {
+        if (end1 - start1 != end2 - start2) return false;
+        for (int i = 0; i < end1 - start1; i++) {
+            if (doc.charAt(start1 + i) != doc.charAt(start2 + i)) return false;
+        }
+        return true;
+    }
+
+    private boolean startsWith(int start, String string) {
+        if (start + string.length() > length) return false;
+        for (int i = 0; i < string.length(); i++) {
+            if (doc.charAt(start + i) != string.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private int parseNumber(int start, int end) {
+        if (end - start > 9) return -1;
+        int number = 0;
+        for (int i = start; i < end; i++) {
+            char character = doc.charAt(i);
+            if (character < '0' || character > '9') return -1;
+            number = number * 10 + (character - '0');
+        }
+        return number;
+    }
+
+    private int skipSpaces(int i) {
+        while (i < length && isSpace(doc.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isLetter(char character) {
+        return (character >= 'A' && character <= 'Z') || (character >= 'a' && character <= 'z');
+    }
+
+    private static boolean isNameChar(char character) {
+        return isLetter(character) || (character >= '0' && character <= '9')
+                || character == '-' || character == '_' || character == ':' || character == '.';
+    }
+
+    private static boolean isValueChar(char character) {
+        return !isSpace(character) && character != '"' && character != '\'' && character != '<'
+                && character != '>' && character != '=' && character != '&' && character != '`';
+    }
+
+    private static boolean isSpace(char character) {
+        return character == ' ' || character == '\t' || character == '\n' || character == '\r' || character == '\f';
+    }
+
+    /**
+     * The text of a single tag. Whitespace is collapsed to a single space and trimmed, like Jsoup does.
+     */
+    private static class TagText {
+
+        private final StringBuilder text = new StringBuilder();
+        /**
+         * true if whitespace was seen after the last character added
+         */
+        private boolean pendingSpace;
+
+        void clear() {
+            text.setLength(0);
+            pendingSpace = false;
+        }
+
+        void append(char character) {
+            switch (character) {
+                case ' ': case '\t': case '\n': case '\r': case '\f': case '\u00A0':
+                    if (text.length() > 0) pendingSpace = true;
+                    return;
+                case '\u00AD': case '\u200B': // invisible
+                    return;
+                default:
+                    if (pendingSpace) {
+                        text.append(' ');
+                        pendingSpace = false;
+                    }
+                    text.append(character);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
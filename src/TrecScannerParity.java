@@ -0,0 +1,80 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks that the TrecScanner gets the same docs as Jsoup: parses every doc of a corpus both ways (see
+ * Parse.getParsedDoc) and compares the fields of the two docs, and their terms. Prints every doc that
+ * differs, and exits with status 1 if any does.
+ *
+ * Usage: TrecScannerParity corpusPath [stem]
+ * corpusPath is a corpus directory with its stop_words.txt, like the ones indexed. With "stem", the terms
+ * are stemmed.
+ */
+public class TrecScannerParity {
+
+    /**
+     * most differences printed
+     */
+    private static final int MAX_PRINTED = 20;
+
+    public static void main(String[] args) throws IOException {
+        String corpusPath = args[0];
+        boolean useStemming = args.length > 1 && args[1].equals("stem");
+        String stopWordsName = "stop_words.txt";
+        CharArraySet stopWords = Indexer.getStopWords(corpusPath + "\\" + stopWordsName);
+        HashMap months = Indexer.getMonths();
+        boolean[] stopSuffixes = Indexer.getStopSuffixes();
+        boolean[] stopPrefixes = Indexer.getStopPrefixes();
+        Parse scanned = new Parse(stopWords, Cities.get_cities_dictionary(), new ConcurrentHashMap<>(),
+                months, new StemCache(1 << 12), stopSuffixes, stopPrefixes, useStemming);
+        Parse jsoup = new Parse(stopWords, Cities.get_cities_dictionary(), new ConcurrentHashMap<>(),
+                months, new StemCache(1 << 12), stopSuffixes, stopPrefixes, useStemming);
+
+        List<String> filePaths = new ArrayList<>();
+        Indexer.walk(corpusPath, filePaths);
+        filePaths.removeIf(filePath -> new File(filePath).getName().equals(stopWordsName));
+        Collections.sort(filePaths);
+
+        int docs = 0;
+        int different = 0;
+        for (String filePath : filePaths) {
+            ReadFile file = new ReadFile(filePath);
+            CharSequence docString;
+            while ((docString = file.nextDoc()) != null) {
+                docs++;
+                // the parsers reuse the buffer of the terms, so they are compared before the next doc
+                String difference = compare(scanned.getParsedDoc(docString, true), jsoup.getParsedDoc(docString, false));
+                if (difference == null) continue;
+                if (different++ < MAX_PRINTED) {
+                    System.out.println(new File(filePath).getName() + " doc " + docs + ": " + difference);
+                }
+            }
+        }
+        System.out.println(docs + " docs, " + different + " different");
+        if (different > 0) System.exit(1);
+    }
+
+    /**
+     * @param scanned doc parsed with the scanner
+     * @param jsoup doc parsed with Jsoup
+     * @return the first field where docs differ, with both values, or null if they are the same
+     */
+    private static String compare(Doc scanned, Doc jsoup) {
+        if (!scanned.name.equals(jsoup.name)) return "name " + scanned.name + " / " + jsoup.name;
+        if (!scanned.language.equals(jsoup.language)) return "language " + scanned.language + " / " + jsoup.language;
+        if (!scanned.city.equals(jsoup.city)) return "city " + scanned.city + " / " + jsoup.city;
+        if (!scanned.date.equals(jsoup.date)) return "date " + scanned.date + " / " + jsoup.date;
+        if (!scanned.title.equals(jsoup.title)) return "title " + scanned.title + " / " + jsoup.title;
+        if (scanned.terms.size() != jsoup.terms.size()) {
+            return "number of terms " + scanned.terms.size() + " / " + jsoup.terms.size();
+        }
+        for (int i = 0; i < scanned.terms.size(); i++) {
+            if (!scanned.terms.get(i).equals(jsoup.terms.get(i))) {
+                return "term " + i + " " + scanned.terms.get(i) + " / " + jsoup.terms.get(i);
+            }
+        }
+        return null;
+    }
+}